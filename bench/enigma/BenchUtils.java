@@ -0,0 +1,113 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Generators of machines and inputs for the benchmarks.  Everything is
+ *  derived from a fixed seed, so runs are comparable.
+ *  @author Kevin Li
+ */
+final class BenchUtils {
+
+    /** Not instantiable. */
+    private BenchUtils() {
+    }
+
+    /** Seed for all generated data. */
+    static final long SEED = 0x5EED;
+
+    /** Return an alphabet of SIZE symbols: the letters A.. for SIZE up to
+     *  26, and otherwise a run of CJK ideographs, in a scrambled order so
+     *  that lookups cannot take advantage of a contiguous range. */
+    static Alphabet alphabet(int size) {
+        if (size <= 26) {
+            return new CharacterRange('A', (char) ('A' + size - 1));
+        }
+        int[] symbols = shuffled(size, new Random(SEED));
+        StringBuilder chars = new StringBuilder();
+        for (int s : symbols) {
+            chars.append((char) (0x4E00 + s));
+        }
+        return new CharacterTable(chars.toString());
+    }
+
+    /** Return a random permutation of 0 .. SIZE-1 drawn from RANDOM. */
+    static int[] shuffled(int size, Random random) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = i;
+        }
+        for (int i = size - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return a random wiring of ALPHABET drawn from RANDOM. */
+    static Permutation wiring(Alphabet alphabet, Random random) {
+        return new Permutation(shuffled(alphabet.size(), random), alphabet);
+    }
+
+    /** Return a random reflector wiring (a derangement made of 2-cycles)
+     *  of ALPHABET, whose size must be even, drawn from RANDOM. */
+    static Permutation reflection(Alphabet alphabet, Random random) {
+        int[] order = shuffled(alphabet.size(), random);
+        int[] map = new int[order.length];
+        for (int i = 0; i < order.length; i += 2) {
+            map[order[i]] = order[i + 1];
+            map[order[i + 1]] = order[i];
+        }
+        return new Permutation(map, alphabet);
+    }
+
+    /** Return a machine over an alphabet of SYMBOLS symbols (an even
+     *  number) with SLOTS slots, holding a reflector and SLOTS-1 moving
+     *  rotors, each with one notch, all inserted and set to their first
+     *  positions. */
+    static Machine machine(int symbols, int slots) {
+        Random random = new Random(SEED);
+        Alphabet alphabet = alphabet(symbols);
+        List<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[slots];
+        names[0] = "R";
+        rotors.add(new Reflector("R", reflection(alphabet, random)));
+        StringBuilder setting = new StringBuilder();
+        for (int i = 1; i < slots; i += 1) {
+            names[i] = "M" + i;
+            String notch = String.valueOf(
+                alphabet.toChar(random.nextInt(symbols)));
+            rotors.add(new MovingRotor(names[i], wiring(alphabet, random),
+                                       notch));
+            setting.append(alphabet.toChar(0));
+        }
+        Machine machine = new Machine(alphabet, slots, slots - 1, rotors);
+        machine.insertRotors(names);
+        machine.setRotors(setting.toString());
+        return machine;
+    }
+
+    /** Return LENGTH random symbols of ALPHABET. */
+    static String message(Alphabet alphabet, int length) {
+        Random random = new Random(SEED + length);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            chars[i] = alphabet.toChar(random.nextInt(alphabet.size()));
+        }
+        return new String(chars);
+    }
+
+    /** Return LENGTH random alphabet indices for an alphabet of SIZE
+     *  symbols. */
+    static int[] indices(int size, int length) {
+        Random random = new Random(SEED + length);
+        int[] result = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = random.nextInt(size);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks of reading a machine description: parsing a configuration
+ *  (as Main.readConfig does) and loading the equivalent snapshot.
+ *  @author Kevin Li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfigBench {
+
+    /** Number of rotors in the configuration. */
+    @Param({"12", "1000"})
+    public int rotors;
+
+    /** Configuration text. */
+    private String _config;
+    /** Snapshot of the same configuration. */
+    private Path _snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder config = new StringBuilder("A-Z\n 5 3\n");
+        Alphabet alphabet = BenchUtils.alphabet(26);
+        Random random = new Random(BenchUtils.SEED);
+        for (int i = 0; i < rotors; i += 1) {
+            int[] order = BenchUtils.shuffled(26, random);
+            config.append(" M").append(i).append(" M")
+                .append(alphabet.toChar(order[0])).append(" (");
+            for (int s : order) {
+                config.append(alphabet.toChar(s));
+            }
+            config.append(")\n");
+        }
+        config.append(" B R");
+        int[] order = BenchUtils.shuffled(26, random);
+        for (int i = 0; i < 26; i += 2) {
+            config.append(i % 10 == 0 ? "\n   (" : " (")
+                .append(alphabet.toChar(order[i]))
+                .append(alphabet.toChar(order[i + 1])).append(')');
+        }
+        _config = config.append('\n').toString();
+        _snapshot = Files.createTempFile("bench", ".snap");
+        Snapshot.write(parse(), _snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(_snapshot);
+    }
+
+    @Benchmark
+    public Machine parse() {
+        return new ConfigParser("bench.conf", _config).parse();
+    }
+
+    @Benchmark
+    public Machine loadSnapshot() {
+        return Snapshot.load(_snapshot);
+    }
+}
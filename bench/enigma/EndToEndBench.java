@@ -0,0 +1,84 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmarks of Main from files to file: reading the configuration,
+ *  then converting and formatting a generated input.  The input is
+ *  TOTAL_LINES lines of 72 letters each (with blanks), divided among
+ *  MESSAGES messages.
+ *  @author Kevin Li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EndToEndBench {
+
+    /** Number of messages (setting lines) in the input. */
+    @Param({"1", "1000"})
+    public int messages;
+
+    /** Total number of message lines in the input. */
+    static final int TOTAL_LINES = 10000;
+
+    /** Files used. */
+    private Path _config, _input, _output;
+
+    @Setup
+    public void setUp() throws IOException {
+        _config = Files.createTempFile("bench", ".conf");
+        _input = Files.createTempFile("bench", ".inp");
+        _output = Files.createTempFile("bench", ".out");
+        Files.writeString(_config, String.join("\n",
+            "A-Z",
+            " 5 3",
+            " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+            " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+            " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+            " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+            " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+            " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+            "           (RX) (SZ) (TV)", ""));
+        Alphabet alphabet = BenchUtils.alphabet(26);
+        StringBuilder input = new StringBuilder();
+        int lines = TOTAL_LINES / messages;
+        for (int m = 0; m < messages; m += 1) {
+            input.append("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n");
+            String text = BenchUtils.message(alphabet, 72 * lines);
+            for (int k = 0; k < lines; k += 1) {
+                for (int g = 0; g < 72; g += 6) {
+                    input.append(text, 72 * k + g, 72 * k + g + 6)
+                        .append(' ');
+                }
+                input.append('\n');
+            }
+        }
+        Files.write(_input, input.toString()
+                    .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(_config);
+        Files.delete(_input);
+        Files.delete(_output);
+    }
+
+    @Benchmark
+    public void process() {
+        Main.main(_config.toString(), _input.toString(), _output.toString());
+    }
+}
@@ -0,0 +1,69 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Machine.convert on single indices and on Strings, per
+ *  character, across rotor counts, alphabet sizes, and engines.
+ *  @author Kevin Li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MachineBench {
+
+    /** Length of the converted messages. */
+    static final int LENGTH = 4096;
+
+    /** Alphabet size. */
+    @Param({"26", "1000"})
+    public int symbols;
+
+    /** Number of slots. */
+    @Param({"5", "8", "16"})
+    public int slots;
+
+    /** Engine, as named for Engine.named. */
+    @Param({"direct", "incremental", "tree", "flat"})
+    public String engine;
+
+    /** Machine under test. */
+    private Machine _machine;
+    /** Indices to convert. */
+    private int[] _indices;
+    /** Message to convert. */
+    private String _message;
+
+    @Setup
+    public void setUp() {
+        _machine = BenchUtils.machine(symbols, slots);
+        _machine.setEngine(Engine.named(engine));
+        _indices = BenchUtils.indices(symbols, LENGTH);
+        _message = BenchUtils.message(_machine.alphabet(), LENGTH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int convertInt() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _machine.convert(c);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+}
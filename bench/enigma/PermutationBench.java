@@ -0,0 +1,63 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Permutation.permute and Permutation.invert, per
+ *  index.
+ *  @author Kevin Li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermutationBench {
+
+    /** Number of indices converted per invocation. */
+    static final int BATCH = 4096;
+
+    /** Alphabet size. */
+    @Param({"26", "256", "10000"})
+    public int symbols;
+
+    /** Permutation under test. */
+    private Permutation _perm;
+    /** Indices to convert. */
+    private int[] _indices;
+
+    @Setup
+    public void setUp() {
+        Alphabet alphabet = BenchUtils.alphabet(symbols);
+        _perm = BenchUtils.wiring(alphabet, new Random(BenchUtils.SEED));
+        _indices = BenchUtils.indices(symbols, BATCH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int permute() {
+        int sum = 0;
+        for (int p : _indices) {
+            sum += _perm.permute(p);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int invert() {
+        int sum = 0;
+        for (int c : _indices) {
+            sum += _perm.invert(c);
+        }
+        return sum;
+    }
+}
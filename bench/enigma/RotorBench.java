@@ -0,0 +1,68 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks of Rotor.convertForward and Rotor.convertBackward, per
+ *  index, with the rotor advancing as it would in a fast slot.  The
+ *  alphabet sizes cover each RotorTable strategy under the default
+ *  budget.
+ *  @author Kevin Li
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RotorBench {
+
+    /** Number of indices converted per invocation. */
+    static final int BATCH = 4096;
+
+    /** Alphabet size. */
+    @Param({"26", "1000", "10000"})
+    public int symbols;
+
+    /** Rotor under test. */
+    private Rotor _rotor;
+    /** Indices to convert. */
+    private int[] _indices;
+
+    @Setup
+    public void setUp() {
+        Alphabet alphabet = BenchUtils.alphabet(symbols);
+        _rotor = new MovingRotor("M", BenchUtils.wiring(alphabet,
+                                 new Random(BenchUtils.SEED)), "");
+        _indices = BenchUtils.indices(symbols, BATCH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertForward() {
+        int sum = 0;
+        for (int p : _indices) {
+            _rotor.advance();
+            sum += _rotor.convertForward(p);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int convertBackward() {
+        int sum = 0;
+        for (int e : _indices) {
+            _rotor.advance();
+            sum += _rotor.convertBackward(e);
+        }
+        return sum;
+    }
+}
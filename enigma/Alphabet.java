@@ -20,4 +20,28 @@ abstract class Alphabet {
      *  the alphabet. This is the inverse of toChar(). */
     abstract int toInt(char ch);
 
+    /** Returns the index of character CH, or -1 if it is not in the
+     *  alphabet. */
+    int indexOf(char ch) {
+        return contains(ch) ? toInt(ch) : -1;
+    }
+
+    /** Returns true if the Unicode code point CP is in this alphabet.  By
+     *  default, only code points that fit in a char can be. */
+    boolean containsCodePoint(int cp) {
+        return indexOfCodePoint(cp) >= 0;
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return toChar(index);
+    }
+
+    /** Returns the index of the Unicode code point CP, or -1 if it is not
+     *  in the alphabet. */
+    int indexOfCodePoint(int cp) {
+        return Character.isBmpCodePoint(cp) ? indexOf((char) cp) : -1;
+    }
+
 }
@@ -0,0 +1,405 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** A known-plaintext attack in the manner of the Turing-Welchman bombe.
+ *  For each rotor order and start position, the bombe guesses the
+ *  plugboard partner of the center of a crib's Menu and follows the
+ *  consequences through the menu's edges, using the permutation of the
+ *  rotors (without the plugboard) at each crib position, and through
+ *  the symmetry of the plugboard (if A is plugged to X, X is plugged to
+ *  A: Welchman's diagonal board).  A guess that implies two partners for
+ *  any symbol is refuted, along with every other guess it implied for
+ *  the center, since all of them stand or fall together.  A start
+ *  position at which some guess survives is a stop, and is reported as
+ *  a setting line whose plugboard holds the pairs the guess implied.
+ *
+ *  The guesses implied for each symbol are kept as a bit set, so the
+ *  alphabet may have at most 64 symbols.  The rotor permutation of each
+ *  state of the rotors is computed once per rotor order, from the
+ *  rotors' tables, and shared by every start position that passes
+ *  through that state; stepping follows the machine's Stepper.  Rotor
+ *  orders are divided among the threads of a ForkJoinPool.
+ *  @author Kevin Li
+ */
+final class Bombe {
+
+    /** A bombe for MENU, trying the rotors of MACHINE. */
+    Bombe(Machine machine, Menu menu) {
+        if (machine.alphabet().size() > Long.SIZE) {
+            throw error("the bombe needs an alphabet of at most %d symbols",
+                        Long.SIZE);
+        }
+        if (machine.alphabet().size() != menu.size()) {
+            throw error("menu and machine have different alphabets");
+        }
+        _machine = machine;
+        _menu = menu;
+        long states = 1;
+        for (int i = 1; i < machine.numRotors(); i += 1) {
+            if (states > Integer.MAX_VALUE / menu.size()) {
+                throw error("too many rotor positions for the bombe");
+            }
+            states *= menu.size();
+        }
+        _states = (int) states;
+    }
+
+    /** Try every order in ORDERS, an arrangement of rotor names
+     *  (reflector first) acceptable to my machine, at every start
+     *  position, using the threads of POOL, and return the setting lines
+     *  of the stops, in order, stopping once LIMIT have been found (in
+     *  which case which are returned depends on timing). */
+    List<String> run(List<String[]> orders, ForkJoinPool pool, int limit) {
+        if (limit <= 0) {
+            throw error("limit on stops must be positive");
+        }
+        Machine check = _machine.copy();
+        for (String[] order : orders) {
+            check.insertRotors(order);
+        }
+        Queue<String> stops = new ConcurrentLinkedQueue<>();
+        Run run = new Run(stops, limit);
+        pool.invoke(new Part(orders, 0, orders.size(), run,
+                             ThreadLocal.withInitial(Worker::new)));
+        List<String> result = new ArrayList<>(stops);
+        Collections.sort(result);
+        return result.subList(0, Math.min(limit, result.size()));
+    }
+
+    /** Try every rotor order my machine accepts, as for
+     *  run(List, ForkJoinPool, int). */
+    List<String> run(ForkJoinPool pool, int limit) {
+        return run(Search.orders(_machine), pool, limit);
+    }
+
+    /** The shared state of one run. */
+    private static class Run {
+        /** A run collecting up to LIMIT stops in STOPS. */
+        Run(Queue<String> stops, int limit) {
+            _stops = stops;
+            _limit = limit;
+        }
+
+        /** Record the stop SETTING. */
+        void add(String setting) {
+            if (_count.incrementAndGet() <= _limit) {
+                _stops.add(setting);
+            }
+        }
+
+        /** Return true iff enough stops have been found. */
+        boolean done() {
+            return _count.get() >= _limit;
+        }
+
+        /** Stops found. */
+        private final Queue<String> _stops;
+        /** Number of stops wanted. */
+        private final int _limit;
+        /** Number of stops found. */
+        private final AtomicInteger _count = new AtomicInteger();
+    }
+
+    /** The portion of a run that covers a range of rotor orders. */
+    @SuppressWarnings("serial")
+    private class Part extends RecursiveAction {
+
+        /** The run RUN over ORDERS[FIRST .. LAST - 1], testing with the
+         *  Workers in WORKERS. */
+        Part(List<String[]> orders, int first, int last, Run run,
+             ThreadLocal<Worker> workers) {
+            _orders = orders;
+            _first = first;
+            _last = last;
+            _run = run;
+            _workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (_last - _first > 1) {
+                int mid = (_first + _last) >>> 1;
+                invokeAll(new Part(_orders, _first, mid, _run, _workers),
+                          new Part(_orders, mid, _last, _run, _workers));
+            } else if (_first < _last) {
+                _workers.get().test(_orders.get(_first), _run);
+            }
+        }
+
+        /** The rotor orders of the whole run. */
+        private final List<String[]> _orders;
+        /** Index in _orders of my first order. */
+        private final int _first;
+        /** Index in _orders just past my last order. */
+        private final int _last;
+        /** The run I am part of. */
+        private final Run _run;
+        /** Testers for each thread. */
+        private final ThreadLocal<Worker> _workers;
+    }
+
+    /** A copy of my machine, and the tables for testing one rotor order
+     *  at a time with it, for the use of one thread. */
+    private class Worker {
+
+        /** A worker with a copy of my machine. */
+        Worker() {
+            int n = _menu.size();
+            _copy = _machine.copy();
+            _posns = new int[_machine.numRotors()];
+            _cribPerms = new int[_menu.length()][];
+            _live = new long[n];
+            _touched = new int[n];
+            _pending = new int[n];
+            _values = new int[n];
+            _map = new int[n];
+            if ((long) _states * n > CACHE_LIMIT) {
+                _scratch = new int[_menu.length()][n];
+            }
+        }
+
+        /** Test ORDER at every start position, adding its stops to RUN. */
+        void test(String[] order, Run run) {
+            _copy.insertRotors(order);
+            List<Rotor> rotors = _copy.getRotorsUsed();
+            int k = rotors.size();
+            _stepper = _copy.stepper();
+            _tables = new RotorTable[k];
+            _forward = new int[k][];
+            _backward = new int[k][];
+            for (int j = 0; j < k; j += 1) {
+                _tables[j] = rotors.get(j).table();
+                if (!_tables[j].tabulated()) {
+                    _forward[j] = new int[_menu.size()];
+                    _backward[j] = new int[_menu.size()];
+                }
+            }
+            _reflector = rotors.get(0).setting();
+            _perms = _scratch == null ? new int[_states][] : null;
+            int n = _menu.size();
+            int length = _menu.length();
+            for (int start = 0; start < _states && !run.done();
+                 start += 1) {
+                int s = start;
+                for (int j = k - 1; j >= 1; j -= 1) {
+                    _posns[j] = s % n;
+                    s /= n;
+                }
+                _posns[0] = _reflector;
+                if (_menu.offset() >= n) {
+                    _stepper.advance(_posns, _menu.offset());
+                } else {
+                    for (int i = 0; i < _menu.offset(); i += 1) {
+                        _stepper.step(_posns);
+                    }
+                }
+                for (int i = 0; i < length; i += 1) {
+                    _stepper.step(_posns);
+                    _cribPerms[i] = permutation(i);
+                }
+                testStart(order, start, run);
+            }
+            _perms = null;
+        }
+
+        /** Return the permutation of the rotors (converting from the
+         *  right, through the reflector, and back) at positions _posns,
+         *  which is position I of the crib. */
+        private int[] permutation(int i) {
+            int n = _menu.size();
+            int state = 0;
+            for (int j = 1; j < _posns.length; j += 1) {
+                state = state * n + _posns[j];
+            }
+            int[] result;
+            if (_perms != null) {
+                if (_perms[state] != null) {
+                    return _perms[state];
+                }
+                result = _perms[state] = new int[n];
+            } else {
+                result = _scratch[i];
+            }
+            int k = _posns.length;
+            int[][] forward = _forward, backward = _backward;
+            for (int j = 0; j < k; j += 1) {
+                if (_tables[j].tabulated()) {
+                    forward[j] = _tables[j].forward(_posns[j]);
+                    backward[j] = _tables[j].backward(_posns[j]);
+                } else {
+                    _tables[j].forward(_posns[j], forward[j]);
+                    _tables[j].backward(_posns[j], backward[j]);
+                }
+            }
+            for (int c = 0; c < n; c += 1) {
+                int e = c;
+                for (int j = k - 1; j >= 0; j -= 1) {
+                    e = forward[j][e];
+                }
+                for (int j = 1; j < k; j += 1) {
+                    e = backward[j][e];
+                }
+                result[c] = e;
+            }
+            return result;
+        }
+
+        /** Test every guess for the partner of the menu's center at the
+         *  start position numbered START (as in Search) of ORDER, whose
+         *  rotor permutations at each crib position are in _cribPerms,
+         *  adding any stops to RUN. */
+        private void testStart(String[] order, int start, Run run) {
+            int n = _menu.size();
+            int center = _menu.center();
+            long untried = n == Long.SIZE ? -1L : (1L << n) - 1;
+            while (untried != 0) {
+                int guess = Long.numberOfTrailingZeros(untried);
+                boolean consistent = propagate(center, guess);
+                untried &= ~_live[center];
+                if (consistent) {
+                    run.add(settingLine(order, start));
+                }
+                for (int t = 0; t < _count; t += 1) {
+                    _live[_touched[t]] = 0;
+                }
+                _count = 0;
+            }
+        }
+
+        /** Follow the consequences of plugging C to GUESS through the
+         *  menu and the diagonal board, recording them in _live.  Return
+         *  false as soon as some symbol is implied to have two partners,
+         *  and otherwise true. */
+        private boolean propagate(int c, int guess) {
+            int top = 0;
+            if (!imply(c, guess)) {
+                return false;
+            }
+            _pending[top] = c;
+            _values[top++] = guess;
+            while (top > 0) {
+                top -= 1;
+                int a = _pending[top], x = _values[top];
+                int[] neighbors = _menu.neighbors(a);
+                int[] steps = _menu.steps(a);
+                for (int e = 0; e < neighbors.length; e += 1) {
+                    int b = neighbors[e], y = _cribPerms[steps[e]][x];
+                    if ((_live[b] & (1L << y)) == 0) {
+                        if (!imply(b, y)) {
+                            return false;
+                        }
+                        _pending[top] = b;
+                        _values[top++] = y;
+                    }
+                }
+                if ((_live[x] & (1L << a)) == 0) {
+                    if (!imply(x, a)) {
+                        return false;
+                    }
+                    _pending[top] = x;
+                    _values[top++] = a;
+                }
+            }
+            return true;
+        }
+
+        /** Record that A is plugged to X, which A is not yet known to be,
+         *  returning false iff A already has a different partner. */
+        private boolean imply(int a, int x) {
+            if (_live[a] == 0) {
+                _touched[_count++] = a;
+                _live[a] = 1L << x;
+                return true;
+            }
+            _live[a] |= 1L << x;
+            return false;
+        }
+
+        /** Return the setting line for ORDER at the start position
+         *  numbered START, with the plugboard pairs in _live. */
+        private String settingLine(String[] order, int start) {
+            Alphabet alpha = _machine.alphabet();
+            int n = alpha.size();
+            StringBuilder line = new StringBuilder("*");
+            for (String name : order) {
+                line.append(' ').append(name);
+            }
+            line.append(' ');
+            int[] digits = new int[order.length - 1];
+            for (int j = digits.length - 1; j >= 0; j -= 1) {
+                digits[j] = start % n;
+                start /= n;
+            }
+            for (int digit : digits) {
+                line.appendCodePoint(alpha.toCodePoint(digit));
+            }
+            for (int c = 0; c < n; c += 1) {
+                _map[c] = _live[c] == 0 ? c
+                    : Long.numberOfTrailingZeros(_live[c]);
+            }
+            String cycles = new Permutation(_map, alpha).cycles();
+            if (!cycles.isEmpty()) {
+                line.append(' ').append(cycles);
+            }
+            return line.toString();
+        }
+
+        /** My copy of the machine. */
+        private final Machine _copy;
+        /** Stepping rules of the order being tested. */
+        private Stepper _stepper;
+        /** Tables of the rotors of the order being tested. */
+        private RotorTable[] _tables;
+        /** Forward and backward conversions of each rotor, for
+         *  permutation: shared rows of tabulated tables, and otherwise
+         *  rows of my own, filled in place. */
+        private int[][] _forward, _backward;
+        /** Setting of the reflector. */
+        private int _reflector;
+        /** Rotor positions being tried. */
+        private final int[] _posns;
+        /** Rotor permutations of each state of the order being tested,
+         *  by state number (the positions, reflector excepted, as a
+         *  number in base alphabet size), or null if not yet computed;
+         *  null if there are too many states to keep. */
+        private int[][] _perms;
+        /** Rows for the rotor permutations at each crib position when
+         *  _perms is null, and otherwise null. */
+        private int[][] _scratch;
+        /** Rotor permutation at each crib position. */
+        private final int[][] _cribPerms;
+        /** _live[C] is the set of partners implied for C. */
+        private final long[] _live;
+        /** The symbols C with _live[C] not empty. */
+        private final int[] _touched;
+        /** Number of symbols in _touched. */
+        private int _count;
+        /** Symbols whose implications remain to be followed. */
+        private final int[] _pending;
+        /** Partners implied for the symbols in _pending. */
+        private final int[] _values;
+        /** Plugboard being reported. */
+        private final int[] _map;
+    }
+
+    /** Largest number of entries of rotor permutations kept for one
+     *  rotor order. */
+    private static final long CACHE_LIMIT = 1 << 22;
+
+    /** The machine whose rotors are tried. */
+    private final Machine _machine;
+    /** The menu being tested. */
+    private final Menu _menu;
+    /** Number of start positions of each rotor order. */
+    private final int _states;
+}
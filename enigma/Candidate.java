@@ -0,0 +1,63 @@
+package enigma;
+
+/** A setting of a machine found by a search, with the decryption it gives
+ *  and that decryption's score.  Candidates are ordered by score, best
+ *  first, and then by setting line.
+ *  @author Kevin Li
+ */
+final class Candidate implements Comparable<Candidate> {
+
+    /** A candidate whose setting line is SETTING, whose decryption is
+     *  PLAINTEXT, and whose score is SCORE. */
+    Candidate(String setting, String plaintext, double score) {
+        _setting = setting;
+        _plaintext = plaintext;
+        _score = score;
+    }
+
+    /** Return my setting line, as it would appear in the input to Main:
+     *  a '*', the names of the rotors, their settings, and the plugboard
+     *  cycles, if any. */
+    String setting() {
+        return _setting;
+    }
+
+    /** Return the decryption my setting gives. */
+    String plaintext() {
+        return _plaintext;
+    }
+
+    /** Return the score of plaintext(). */
+    double score() {
+        return _score;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+        int result = Double.compare(other._score, _score);
+        return result != 0 ? result : _setting.compareTo(other._setting);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Candidate
+            && compareTo((Candidate) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return _setting.hashCode() ^ Double.hashCode(_score);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.4f %s", _score, _setting);
+    }
+
+    /** My setting line. */
+    private final String _setting;
+    /** My decryption. */
+    private final String _plaintext;
+    /** Score of _plaintext. */
+    private final double _score;
+}
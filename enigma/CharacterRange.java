@@ -44,6 +44,11 @@ class CharacterRange extends Alphabet {
         return ch - _first;
     }
 
+    @Override
+    int indexOf(char ch) {
+        return contains(ch) ? ch - _first : -1;
+    }
+
     /** Range of characters in this Alphabet. */
     private char _first, _last;
 
@@ -0,0 +1,69 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An Alphabet consisting of an arbitrary set of characters in a given
+ *  order.  Lookups in both directions go through tables indexed by the
+ *  character or its index, so they take constant time regardless of the
+ *  order or spread of the characters.
+ *  @author Kevin Li
+ */
+class CharacterTable extends Alphabet {
+
+    /** An alphabet consisting of the characters of CHARS, converted to
+     *  upper case, in order.  CHARS must be non-empty and may not contain
+     *  a character twice. */
+    CharacterTable(String chars) {
+        if (chars.isEmpty()) {
+            throw error("empty alphabet");
+        }
+        _chars = chars.toUpperCase().toCharArray();
+        if (_chars.length != chars.length()) {
+            throw error("Alphabet is not valid");
+        }
+        _index = new char[Character.MAX_VALUE + 1];
+        for (int i = 0; i < _chars.length; i += 1) {
+            char ch = _chars[i];
+            if (_index[ch] != 0) {
+                throw error("Alphabet contains %c more than once", ch);
+            }
+            _index[ch] = (char) (i + 1);
+        }
+    }
+
+    @Override
+    int size() {
+        return _chars.length;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        return _index[ch] != 0;
+    }
+
+    @Override
+    char toChar(int index) {
+        return _chars[index];
+    }
+
+    @Override
+    int toInt(char ch) {
+        int index = _index[ch] - 1;
+        if (index < 0) {
+            throw error("character out of range");
+        }
+        return index;
+    }
+
+    @Override
+    int indexOf(char ch) {
+        return _index[ch] - 1;
+    }
+
+    /** My characters, in order. */
+    private final char[] _chars;
+    /** One plus the index of each character in _chars, indexed by
+     *  character, or 0 for characters that are not in me. */
+    private final char[] _index;
+
+}
@@ -0,0 +1,103 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An Alphabet consisting of an arbitrary set of Unicode code points,
+ *  including those outside the Basic Multilingual Plane, in a given order.
+ *  Code points are looked up through a two-level table of 256-entry pages,
+ *  of which only the pages holding a symbol are allocated, so even a very
+ *  large alphabet takes a few hundred kilobytes and a lookup is two array
+ *  loads.
+ *  @author Kevin Li
+ */
+class CodePointTable extends Alphabet {
+
+    /** An alphabet consisting of the code points of SYMBOLS, converted to
+     *  upper case, in order.  SYMBOLS must be non-empty and may not contain
+     *  a code point twice. */
+    CodePointTable(String symbols) {
+        _codePoints = symbols.codePoints().map(Character::toUpperCase)
+            .toArray();
+        if (_codePoints.length == 0) {
+            throw error("empty alphabet");
+        }
+        _pages = new int[(Character.MAX_CODE_POINT >> PAGE_BITS) + 1][];
+        for (int i = 0; i < _codePoints.length; i += 1) {
+            int cp = _codePoints[i];
+            int[] page = _pages[cp >> PAGE_BITS];
+            if (page == null) {
+                page = _pages[cp >> PAGE_BITS] = new int[1 << PAGE_BITS];
+            }
+            if (page[cp & PAGE_MASK] != 0) {
+                throw error("Alphabet contains %s more than once",
+                            new String(Character.toChars(cp)));
+            }
+            page[cp & PAGE_MASK] = i + 1;
+        }
+    }
+
+    @Override
+    int size() {
+        return _codePoints.length;
+    }
+
+    @Override
+    boolean contains(char ch) {
+        return indexOfCodePoint(ch) >= 0;
+    }
+
+    @Override
+    char toChar(int index) {
+        int cp = _codePoints[index];
+        if (!Character.isBmpCodePoint(cp)) {
+            throw error("character index does not denote a single char");
+        }
+        return (char) cp;
+    }
+
+    @Override
+    int toInt(char ch) {
+        int index = indexOfCodePoint(ch);
+        if (index < 0) {
+            throw error("character out of range");
+        }
+        return index;
+    }
+
+    @Override
+    int indexOf(char ch) {
+        return indexOfCodePoint(ch);
+    }
+
+    @Override
+    boolean containsCodePoint(int cp) {
+        return indexOfCodePoint(cp) >= 0;
+    }
+
+    @Override
+    int toCodePoint(int index) {
+        return _codePoints[index];
+    }
+
+    @Override
+    int indexOfCodePoint(int cp) {
+        if (cp < 0 || cp > Character.MAX_CODE_POINT) {
+            return -1;
+        }
+        int[] page = _pages[cp >> PAGE_BITS];
+        return page == null ? -1 : page[cp & PAGE_MASK] - 1;
+    }
+
+    /** Log2 of the number of code points in a page. */
+    private static final int PAGE_BITS = 8;
+    /** Mask selecting a code point's position within its page. */
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    /** My code points, in order. */
+    private final int[] _codePoints;
+    /** _pages[CP >> PAGE_BITS][CP & PAGE_MASK] is one plus the index of
+     *  code point CP, or 0 if CP is not in me.  Pages with no code points
+     *  in me are null. */
+    private final int[][] _pages;
+
+}
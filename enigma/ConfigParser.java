@@ -0,0 +1,359 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static enigma.EnigmaException.*;
+
+/** A single-pass parser for machine configuration files.  The text is
+ *  scanned once, from left to right, and each rotor's wiring is built
+ *  directly as it is read, so the time taken is linear in the size of the
+ *  configuration however many rotors it has and however many lines its
+ *  cycles span.  Errors are reported with the line and column at which
+ *  they were found.
+ *
+ *  A configuration is an alphabet line (either two symbols separated by
+ *  '-', denoting a range, or the symbols themselves in order), the
+ *  number of rotor slots and of pawls, and one description per rotor.
+ *  A description is a name, a type (M followed by the notches, N, or R),
+ *  and the rotor's cycles, which may continue on following lines that
+ *  start with '('.
+ *  @author Kevin Li
+ */
+final class ConfigParser {
+
+    /** A parser for TEXT, the contents of the configuration file named
+     *  NAME (used in error messages). */
+    ConfigParser(String name, String text) {
+        _name = name;
+        _text = text;
+        _line = 1;
+    }
+
+    /** Return the machine my configuration describes. */
+    Machine parse() {
+        skipBlankLines();
+        if (peek() == EOF) {
+            throw errorHere("empty configuration");
+        }
+        _alphabet = parseAlphabet();
+        int numRotors = parseInt("the number of rotor slots");
+        int pawls = parseInt("the number of pawls");
+        if (numRotors <= pawls) {
+            throw errorHere("Rotors must be greater than pawls");
+        }
+        expectLineEnd();
+        List<Rotor> rotors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        while (skipBlankLines()) {
+            int line = _line, column = column();
+            Rotor rotor = parseRotor();
+            if (!names.add(rotor.name().toUpperCase())) {
+                throw errorAt(line, column, "duplicate rotor name %s",
+                              rotor.name());
+            }
+            rotors.add(rotor);
+        }
+        return new Machine(_alphabet, numRotors, pawls, rotors);
+    }
+
+    /** Read the alphabet line, returning its alphabet. */
+    private Alphabet parseAlphabet() {
+        int line = _line, column = column();
+        int start = _pos;
+        while (!atLineEnd()) {
+            advance();
+        }
+        String spec = _text.substring(start, _pos).trim();
+        int[] symbols = spec.codePoints().toArray();
+        try {
+            if (spec.indexOf('-') != -1) {
+                if (symbols.length != 3 || symbols[1] != '-'
+                    || !validSymbol(symbols[0]) || !validSymbol(symbols[2])
+                    || !Character.isBmpCodePoint(symbols[0])
+                    || !Character.isBmpCodePoint(symbols[2])) {
+                    throw error("Alphabet is not valid");
+                }
+                return new CharacterRange((char) symbols[0],
+                                          (char) symbols[2]);
+            }
+            for (int cp : symbols) {
+                if (!validSymbol(cp)) {
+                    throw error("Alphabet is not valid");
+                }
+            }
+            if (symbols.length != spec.length()) {
+                return new CodePointTable(spec);
+            }
+            return new CharacterTable(spec);
+        } catch (EnigmaException excp) {
+            throw errorAt(line, column, "%s", excp.getMessage());
+        }
+    }
+
+    /** Skip whitespace, including line ends, and read a non-negative
+     *  integer, which is WHAT (for error messages). */
+    private int parseInt(String what) {
+        skipWhitespace();
+        int start = _pos;
+        int column = column();
+        while (peek() >= '0' && peek() <= '9') {
+            advance();
+        }
+        if (start == _pos) {
+            throw errorHere("expected %s (an integer)", what);
+        }
+        try {
+            return Integer.parseInt(_text.substring(start, _pos));
+        } catch (NumberFormatException excp) {
+            throw errorAt(_line, column, "%s is too large", what);
+        }
+    }
+
+    /** Read a rotor description starting at the current position (which
+     *  is at a non-blank character), returning the rotor. */
+    private Rotor parseRotor() {
+        int line = _line, column = column();
+        String name = word();
+        if (name.isEmpty()) {
+            throw errorHere("expected a rotor name");
+        }
+        skipBlanks();
+        int typeColumn = column();
+        String type = word();
+        if (type.isEmpty()) {
+            throw errorHere("missing type for rotor %s", name);
+        }
+        char kind = type.charAt(0);
+        if (kind != 'M' && kind != 'N' && kind != 'R') {
+            throw errorAt(line, typeColumn, "NOT A VALID ROTOR TYPE: %s",
+                          type);
+        }
+        int[] notches = type.substring(1).codePoints().toArray();
+        if (kind != 'M' && notches.length > 0) {
+            throw errorAt(line, typeColumn + 1,
+                          "only moving rotors have notches");
+        }
+        for (int k = 0; k < notches.length; k += 1) {
+            if (!_alphabet.containsCodePoint(notches[k])) {
+                throw errorAt(line, typeColumn + 1 + k,
+                              "notch is not in the alphabet");
+            }
+        }
+        Permutation perm = parseCycles(name);
+        try {
+            switch (kind) {
+            case 'M':
+                return new MovingRotor(name, perm, type.substring(1));
+            case 'N':
+                return new FixedRotor(name, perm);
+            default:
+                return new Reflector(name, perm);
+            }
+        } catch (EnigmaException excp) {
+            throw errorAt(line, column, "%s", excp.getMessage());
+        }
+    }
+
+    /** Read the cycles of the rotor named NAME, which start on the
+     *  current line and may continue on lines that begin with '(', and
+     *  return their permutation. */
+    private Permutation parseCycles(String name) {
+        int n = _alphabet.size();
+        int[] map = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            map[i] = -1;
+        }
+        while (true) {
+            skipBlanks();
+            if (atLineEnd()) {
+                if (!continuation()) {
+                    break;
+                }
+                continue;
+            }
+            if (peek() != '(') {
+                throw errorHere("unexpected character in the cycles of "
+                                + "rotor %s", name);
+            }
+            advance();
+            int first = -1;
+            int prev = -1;
+            while (peek() != ')') {
+                int cp = peek();
+                if (atLineEnd()) {
+                    throw errorHere("unterminated cycle");
+                }
+                int index = _alphabet.indexOfCodePoint(cp);
+                if (index < 0) {
+                    throw errorHere("Improper character in a cycle.");
+                }
+                if (map[index] != -1 || index == prev) {
+                    throw errorHere("Character appears in more than one "
+                                    + "cycle.");
+                }
+                if (prev == -1) {
+                    first = index;
+                } else {
+                    map[prev] = index;
+                }
+                prev = index;
+                advance();
+            }
+            advance();
+            if (prev != -1) {
+                map[prev] = first;
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            if (map[i] == -1) {
+                map[i] = i;
+            }
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** If the next line starts (after blanks) with '(', move to that '('
+     *  and return true.  Otherwise, leave the position alone and return
+     *  false. */
+    private boolean continuation() {
+        int pos = _pos;
+        if (pos == _text.length()) {
+            return false;
+        }
+        if (_text.charAt(pos) == '\r' && pos + 1 < _text.length()
+            && _text.charAt(pos + 1) == '\n') {
+            pos += 1;
+        }
+        pos += 1;
+        while (pos < _text.length() && isBlank(_text.charAt(pos))) {
+            pos += 1;
+        }
+        if (pos == _text.length() || _text.charAt(pos) != '(') {
+            return false;
+        }
+        while (_pos < pos) {
+            advance();
+        }
+        return true;
+    }
+
+    /** Return the next run of characters other than whitespace and '(',
+     *  which may be empty. */
+    private String word() {
+        int start = _pos;
+        while (peek() != EOF && peek() != '('
+               && !Character.isWhitespace(peek())) {
+            advance();
+        }
+        return _text.substring(start, _pos);
+    }
+
+    /** Skip blanks and blank lines, leaving the position at the first
+     *  non-blank character, and return true iff there is one. */
+    private boolean skipBlankLines() {
+        skipWhitespace();
+        return peek() != EOF;
+    }
+
+    /** Skip all whitespace, including line ends. */
+    private void skipWhitespace() {
+        while (peek() != EOF && Character.isWhitespace(peek())) {
+            advance();
+        }
+    }
+
+    /** Skip whitespace other than line ends. */
+    private void skipBlanks() {
+        while (peek() != EOF && isBlank(peek())) {
+            advance();
+        }
+    }
+
+    /** Check that the rest of the current line is blank. */
+    private void expectLineEnd() {
+        skipBlanks();
+        if (!atLineEnd()) {
+            throw errorHere("unexpected text after the number of pawls");
+        }
+    }
+
+    /** Return true iff CP is a line terminator. */
+    private static boolean isTerminator(int cp) {
+        return cp == '\n' || cp == '\r';
+    }
+
+    /** Return true iff CP is whitespace other than a line terminator. */
+    private static boolean isBlank(int cp) {
+        return Character.isWhitespace(cp) && !isTerminator(cp);
+    }
+
+    /** Return true iff CP may be a symbol of an alphabet. */
+    private static boolean validSymbol(int cp) {
+        return Character.isLetter(cp) || Character.isDigit(cp)
+            || Character.isAlphabetic(cp)
+            || (Character.isSupplementaryCodePoint(cp)
+                && Character.getType(cp) == Character.OTHER_SYMBOL);
+    }
+
+    /** Return true iff the current position is at the end of a line or
+     *  of the text. */
+    private boolean atLineEnd() {
+        return peek() == EOF || isTerminator(peek());
+    }
+
+    /** Return the code point at the current position, or EOF. */
+    private int peek() {
+        return _pos < _text.length() ? _text.codePointAt(_pos) : EOF;
+    }
+
+    /** Move past the code point at the current position, keeping track
+     *  of line numbers. */
+    private void advance() {
+        int cp = peek();
+        _pos += Character.charCount(cp);
+        if (cp == '\n' || (cp == '\r' && peek() != '\n')) {
+            _line += 1;
+            _lineStart = _pos;
+        }
+    }
+
+    /** Return the (1-based) column of the current position, counting code
+     *  points. */
+    private int column() {
+        return _text.codePointCount(_lineStart, _pos) + 1;
+    }
+
+    /** Return an error whose message is formed from MSGFORMAT and
+     *  ARGUMENTS, as for EnigmaException.error, located at the current
+     *  position. */
+    private EnigmaException errorHere(String msgFormat, Object... arguments) {
+        return errorAt(_line, column(), msgFormat, arguments);
+    }
+
+    /** Return an error whose message is formed from MSGFORMAT and
+     *  ARGUMENTS, located at line LINE and column COLUMN. */
+    private EnigmaException errorAt(int line, int column, String msgFormat,
+                                    Object... arguments) {
+        return error("%s:%d:%d: %s", _name, line, column,
+                     String.format(msgFormat, arguments));
+    }
+
+    /** Value of peek() at the end of the text. */
+    private static final int EOF = -1;
+
+    /** Name of the configuration file. */
+    private final String _name;
+    /** Contents of the configuration file. */
+    private final String _text;
+    /** Index in _text of the current position. */
+    private int _pos;
+    /** Line number of the current position. */
+    private int _line;
+    /** Index in _text of the start of the current line. */
+    private int _lineStart;
+    /** Alphabet of the machine, once read. */
+    private Alphabet _alphabet;
+}
@@ -0,0 +1,46 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A way of carrying characters through the rotors of a Machine.  An
+ *  Engine serves one machine at a time, and is reloaded by that machine
+ *  whenever its rotors, their settings, or its plugboard change.
+ *  @author Kevin Li
+ */
+abstract class Engine {
+
+    /** Prepare to convert characters for MACHINE, whose rotors, settings,
+     *  or plugboard have just changed. */
+    abstract void load(Machine machine);
+
+    /** Advance the rotors of my machine as for one keypress, and return
+     *  the conversion of C (an index into its alphabet). */
+    abstract int convert(int c);
+
+    /** Return a new Engine of the kind called NAME ("direct", "incremental",
+     *  "tree", or "flat"), or null (meaning the machine's own conversion)
+     *  if NAME is null or "direct". */
+    static Engine named(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name.toLowerCase()) {
+        case "direct":
+            return null;
+        case "incremental":
+            return new IncrementalEngine();
+        case "tree":
+            return new TreeEngine();
+        case "flat":
+            return new FlatEngine();
+        default:
+            throw error("unknown engine: %s", name);
+        }
+    }
+
+    /** Copy any rotor positions I keep for myself back into the rotors of
+     *  my machine.  By default, does nothing. */
+    void store() {
+    }
+
+}
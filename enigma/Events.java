@@ -0,0 +1,85 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Java Flight Recorder events for the stages of a run: loading the
+ *  machine, each setting line, each converted message, and each write of
+ *  buffered output.  They are recorded by any JFR recording that enables
+ *  them (the default and profile settings do, since they are enabled
+ *  unless configured otherwise), for example one started with
+ *  jcmd PID JFR.start or -XX:StartFlightRecording, and cost almost
+ *  nothing when no recording is running.
+ *  @author Kevin Li
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Reading a configuration or loading a snapshot. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    @Description("Reading the machine configuration or snapshot")
+    static final class ConfigLoad extends Event {
+        /** Name of the configuration or snapshot file. */
+        @Label("Source")
+        String source;
+        /** True iff the source is a snapshot. */
+        @Label("Snapshot")
+        boolean snapshot;
+        /** Number of rotors described. */
+        @Label("Rotors")
+        int rotors;
+        /** Number of symbols in the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Applying one setting line to the machine. */
+    @Name("enigma.Setting")
+    @Label("Setting Line")
+    @Category("Enigma")
+    @Description("Inserting and setting rotors and building the "
+                 + "plugboard for one setting line")
+    static final class Setting extends Event {
+        /** The setting line. */
+        @Label("Setting")
+        String setting;
+        /** True iff the line sets a new plugboard. */
+        @Label("Plugboard")
+        boolean plugboard;
+    }
+
+    /** Converting one message: the lines after a setting line. */
+    @Name("enigma.Message")
+    @Label("Message Conversion")
+    @Category("Enigma")
+    @Description("Converting the lines that follow one setting line")
+    static final class Message extends Event {
+        /** Number of characters converted. */
+        @Label("Length")
+        long length;
+        /** Number of lines converted. */
+        @Label("Lines")
+        int lines;
+    }
+
+    /** Writing buffered output. */
+    @Name("enigma.Flush")
+    @Label("Output Flush")
+    @Category("Enigma")
+    @Description("Writing a block of buffered output")
+    static final class Flush extends Event {
+        /** Number of bytes written. */
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+}
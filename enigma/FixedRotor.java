@@ -13,4 +13,15 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
+    /** A rotor as for FixedRotor(NAME, PERM) that converts through
+     *  TABLE. */
+    FixedRotor(String name, Permutation perm, RotorTable table) {
+        super(name, perm, table);
+    }
+
+    @Override
+    Rotor copy() {
+        return new FixedRotor(name(), permutation(), table());
+    }
+
 }
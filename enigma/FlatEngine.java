@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.List;
+
+/** An Engine that keeps the positions of all rotors in one array and
+ *  steps them with a Stepper, so that a keypress is a loop over primitive
+ *  arrays with no calls on the rotors and no use of their notch or
+ *  advance flags.  The rotors themselves are only brought up to date when
+ *  the machine reports its settings.
+ *  @author Kevin Li
+ */
+class FlatEngine extends Engine {
+
+    @Override
+    void load(Machine machine) {
+        _posns = null;
+        List<Rotor> rotors = machine.getRotorsUsed();
+        int k = rotors.size();
+        _rotors = rotors.toArray(new Rotor[k]);
+        _stepper = machine.stepper();
+        _plugboard = machine.plugboard();
+        _turnaround = machine.turnaround();
+        _first = machine.stationary();
+        _tables = new RotorTable[k];
+        _tabulated = new boolean[k];
+        _forward = new int[k][];
+        _backward = new int[k][];
+        int[] posns = new int[k];
+        for (int j = 0; j < k; j += 1) {
+            _tables[j] = _rotors[j].table();
+            _tabulated[j] = j < k - 1 ? _tables[j].tabulated()
+                : _tables[j].complete();
+            ownRows(j);
+            posns[j] = _rotors[j].setting();
+            fetch(j, posns[j]);
+        }
+        _posns = posns;
+    }
+
+    @Override
+    int convert(int c) {
+        int[] posns = _posns;
+        int moved = _stepper.step(posns);
+        if (Metrics.ENABLED && moved < posns.length - 1) {
+            Metrics.CARRIES.increment();
+        }
+        for (int j = moved; j < posns.length; j += 1) {
+            fetch(j, posns[j]);
+        }
+        c = _plugboard.permute(c);
+        for (int j = posns.length - 1; j >= _first; j -= 1) {
+            int[] row = _forward[j];
+            c = row != null ? row[c] : _tables[j].convertForward(posns[j], c);
+        }
+        c = _turnaround[c];
+        for (int j = _first; j < posns.length; j += 1) {
+            int[] row = _backward[j];
+            c = row != null ? row[c]
+                : _tables[j].convertBackward(posns[j], c);
+        }
+        return _plugboard.invert(c);
+    }
+
+    /** Give slot J rows of its own if its table is not tabulated and it
+     *  is not the fast rotor's slot.  Such a rotor moves at most once in
+     *  every full turn of the rotor to its right, so refilling its rows
+     *  when it moves costs little.  The fast rotor's conversions are
+     *  computed one at a time instead, since it moves on every
+     *  keypress. */
+    private void ownRows(int j) {
+        if (!_tabulated[j] && j < _rotors.length - 1) {
+            _forward[j] = new int[_turnaround.length];
+            _backward[j] = new int[_turnaround.length];
+        }
+    }
+
+    /** Bring the conversions of slot J up to date with position POSN:
+     *  point at its table's rows, if tabulated, and otherwise refill its
+     *  own rows, if it has them. */
+    private void fetch(int j, int posn) {
+        if (_tabulated[j]) {
+            _forward[j] = _tables[j].forward(posn);
+            _backward[j] = _tables[j].backward(posn);
+        } else if (_forward[j] != null) {
+            _tables[j].forward(posn, _forward[j]);
+            _tables[j].backward(posn, _backward[j]);
+        }
+    }
+
+    /** Return a new engine for the same machine, sharing my tables, whose
+     *  rotors are COUNT keypresses ahead of mine.  The new engine is not
+     *  connected to the machine: it does not store its positions back
+     *  into the rotors. */
+    FlatEngine fork(long count) {
+        FlatEngine result = new FlatEngine();
+        result._rotors = _rotors;
+        result._stepper = _stepper;
+        result._plugboard = _plugboard;
+        result._turnaround = _turnaround;
+        result._first = _first;
+        result._tables = _tables;
+        result._tabulated = _tabulated;
+        int k = _posns.length;
+        int[] posns = _posns.clone();
+        _stepper.advance(posns, count);
+        result._forward = new int[k][];
+        result._backward = new int[k][];
+        for (int j = 0; j < k; j += 1) {
+            result.ownRows(j);
+            result.fetch(j, posns[j]);
+        }
+        result._posns = posns;
+        result._forked = true;
+        return result;
+    }
+
+    /** Return the current positions of my rotors.  The result is shared
+     *  and must not be modified. */
+    int[] positions() {
+        return _posns;
+    }
+
+    @Override
+    void store() {
+        if (_posns != null && !_forked) {
+            for (int j = 1; j < _posns.length; j += 1) {
+                if (_rotors[j].setting() != _posns[j]) {
+                    _rotors[j].set(_posns[j]);
+                }
+            }
+        }
+    }
+
+    /** The rotors of my machine, reflector first. */
+    private Rotor[] _rotors;
+    /** Current position of each rotor, or null while loading. */
+    private int[] _posns;
+    /** Stepping rules for _rotors. */
+    private Stepper _stepper;
+    /** Conversion tables of each rotor. */
+    private RotorTable[] _tables;
+    /** _tabulated[J] is true iff slot J uses rows of _tables[J]: iff it
+     *  is tabulated, or, for the fast rotor, which visits every position
+     *  in turn, complete. */
+    private boolean[] _tabulated;
+    /** Forward conversions of each rotor at its current position: rows
+     *  of its table if tabulated, and otherwise rows of my own, or null
+     *  for the fast rotor (see ownRows). */
+    private int[][] _forward;
+    /** Backward conversions of each rotor at its current position, as
+     *  for _forward. */
+    private int[][] _backward;
+    /** The plugboard of my machine. */
+    private Permutation _plugboard;
+    /** Round trip through the rotors that never move. */
+    private int[] _turnaround;
+    /** Number of slots that never move. */
+    private int _first;
+    /** True iff I was made by fork. */
+    private boolean _forked;
+}
@@ -0,0 +1,236 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Writes message lines in groups of a fixed number of characters, each
+ *  group followed by a blank, encoding directly into a reusable byte
+ *  buffer (as UTF-8) that is written out in large blocks.  The grouping
+ *  continues across calls to write, so a line may arrive in any number
+ *  of pieces.  Only whole lines are written out: the current line is
+ *  held (enlarging the buffer if need be) until it ends, so that a line
+ *  cut short by an error can be dropped.
+ *  @author Kevin Li
+ */
+class GroupWriter {
+
+    /** A writer of groups of GROUPSIZE characters to OUT. */
+    GroupWriter(WritableByteChannel out, int groupSize) {
+        if (groupSize <= 0) {
+            throw error("group size must be positive");
+        }
+        _out = out;
+        _groupSize = groupSize;
+        _bytes = new byte[BUFFER_SIZE];
+        _buffer = ByteBuffer.wrap(_bytes);
+    }
+
+    /** Append the LEN characters CHARS[OFF .. OFF + LEN - 1] to the current
+     *  line.  A surrogate pair may be split between calls.  A surrogate
+     *  that is not part of a pair is written as REPLACEMENT. */
+    void write(char[] chars, int off, int len) {
+        byte[] bytes = _bytes;
+        int pos = _pos, column = _column;
+        char high = _highSurrogate;
+        for (int i = off; i < off + len; i += 1) {
+            if (pos > bytes.length - MAX_CHAR_BYTES) {
+                _pos = pos;
+                makeRoom();
+                bytes = _bytes;
+                pos = _pos;
+            }
+            char c = chars[i];
+            if (c < 0x80 && high == 0) {
+                bytes[pos++] = (byte) c;
+            } else if (high != 0) {
+                if (Character.isLowSurrogate(c)) {
+                    pos = encode(Character.toCodePoint(high, c), bytes, pos);
+                } else {
+                    pos = encode(REPLACEMENT, bytes, pos);
+                    i -= 1;
+                }
+                high = 0;
+            } else if (Character.isHighSurrogate(c)) {
+                high = c;
+                continue;
+            } else {
+                pos = encode(Character.isLowSurrogate(c) ? REPLACEMENT : c,
+                             bytes, pos);
+            }
+            column += 1;
+            if (column == _groupSize) {
+                bytes[pos++] = ' ';
+                column = 0;
+            }
+        }
+        _pos = pos;
+        _column = column;
+        _highSurrogate = high;
+    }
+
+    /** Append the LEN Unicode code points CODEPOINTS[OFF .. OFF + LEN - 1]
+     *  to the current line.  Each code point counts as one character of
+     *  its group. */
+    void writeCodePoints(int[] codePoints, int off, int len) {
+        endSurrogate();
+        byte[] bytes = _bytes;
+        int pos = _pos, column = _column;
+        for (int i = off; i < off + len; i += 1) {
+            if (pos > bytes.length - MAX_CHAR_BYTES) {
+                _pos = pos;
+                makeRoom();
+                bytes = _bytes;
+                pos = _pos;
+            }
+            int cp = codePoints[i];
+            if (cp < 0x80) {
+                bytes[pos++] = (byte) cp;
+            } else {
+                pos = encode(cp, bytes, pos);
+            }
+            column += 1;
+            if (column == _groupSize) {
+                bytes[pos++] = ' ';
+                column = 0;
+            }
+        }
+        _pos = pos;
+        _column = column;
+    }
+
+    /** End the current line.  Like the groups before it, a final short
+     *  group is followed by a blank. */
+    void endLine() {
+        endSurrogate();
+        if (_pos > _bytes.length - 2) {
+            makeRoom();
+        }
+        if (_column != 0) {
+            _bytes[_pos++] = ' ';
+        }
+        _bytes[_pos++] = '\n';
+        _column = 0;
+        _lineStart = _pos;
+    }
+
+    /** Discard the current line, which has not been ended, so that none
+     *  of it is written. */
+    void dropLine() {
+        _pos = _lineStart;
+        _column = 0;
+        _highSurrogate = 0;
+    }
+
+    /** Append the LEN bytes BYTES[OFF ..], which are already formatted
+     *  output (complete lines), to my output, between lines. */
+    void writeFormatted(byte[] bytes, int off, int len) {
+        while (len > 0) {
+            if (_pos == _bytes.length) {
+                drain();
+            }
+            int n = Math.min(len, _bytes.length - _pos);
+            System.arraycopy(bytes, off, _bytes, _pos, n);
+            _pos += n;
+            _lineStart = _pos;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Write out everything buffered so far. */
+    void flush() {
+        drain();
+    }
+
+    /** Write a pending high surrogate, which nothing can now complete,
+     *  as REPLACEMENT. */
+    private void endSurrogate() {
+        if (_highSurrogate != 0) {
+            _highSurrogate = 0;
+            writeCodePoints(LONE_SURROGATE, 0, 1);
+        }
+    }
+
+    /** Encode the non-ASCII code point CP as UTF-8 into BYTES at POS,
+     *  returning the position after it. */
+    private int encode(int cp, byte[] bytes, int pos) {
+        if (cp < 0x800) {
+            bytes[pos++] = (byte) (0xC0 | (cp >> 6));
+        } else if (cp < 0x10000) {
+            bytes[pos++] = (byte) (0xE0 | (cp >> 12));
+            bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        } else {
+            bytes[pos++] = (byte) (0xF0 | (cp >> 18));
+            bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        }
+        bytes[pos++] = (byte) (0x80 | (cp & 0x3F));
+        return pos;
+    }
+
+    /** Make room for at least MAX_CHAR_BYTES more bytes of the current
+     *  line by writing out the whole lines before it, or, if it fills my
+     *  buffer, by enlarging the buffer. */
+    private void makeRoom() {
+        int start = _lineStart, end = _pos;
+        if (start > 0) {
+            _pos = start;
+            drain();
+            System.arraycopy(_bytes, start, _bytes, 0, end - start);
+            _pos = end - start;
+        }
+        if (_pos > _bytes.length - MAX_CHAR_BYTES) {
+            _bytes = Arrays.copyOf(_bytes, 2 * _bytes.length);
+            _buffer = ByteBuffer.wrap(_bytes);
+        }
+    }
+
+    /** Write the first _pos bytes of my buffer to _out and empty it. */
+    private void drain() {
+        Events.Flush event = new Events.Flush();
+        event.begin();
+        _buffer.clear().limit(_pos);
+        try {
+            while (_buffer.hasRemaining()) {
+                _out.write(_buffer);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        event.bytes = _pos;
+        event.commit();
+        _pos = 0;
+        _lineStart = 0;
+    }
+
+    /** Size of my byte buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Character written in place of a surrogate that is not part of a
+     *  pair. */
+    static final int REPLACEMENT = 0xFFFD;
+    /** REPLACEMENT, as written by endSurrogate. */
+    private static final int[] LONE_SURROGATE = { REPLACEMENT };
+    /** Most bytes written for one character and the blank after it. */
+    private static final int MAX_CHAR_BYTES = 5;
+
+    /** Destination of my output. */
+    private final WritableByteChannel _out;
+    /** Number of characters in a group. */
+    private final int _groupSize;
+    /** Buffered output. */
+    private byte[] _bytes;
+    /** _bytes, for writing to _out. */
+    private ByteBuffer _buffer;
+    /** Number of bytes in _bytes. */
+    private int _pos;
+    /** Index in _bytes of the start of the current line. */
+    private int _lineStart;
+    /** Number of characters in the current group so far. */
+    private int _column;
+    /** Pending first half of a surrogate pair, or 0. */
+    private char _highSurrogate;
+}
@@ -0,0 +1,80 @@
+package enigma;
+
+import java.util.List;
+
+/** An Engine that caches the composition of every rotor to the left of
+ *  the fast (rightmost) rotor, together with the reflector.  Between
+ *  steps of those rotors, a character costs the plugboard, the fast rotor,
+ *  one lookup in the cache, the fast rotor in reverse, and the plugboard
+ *  again, however many rotors the machine has.
+ *  @author Kevin Li
+ */
+class IncrementalEngine extends Engine {
+
+    @Override
+    void load(Machine machine) {
+        _machine = machine;
+        _rotors = machine.getRotorsUsed();
+        _plugboard = machine.plugboard();
+        _last = _rotors.size() - 1;
+        if (machine.stationary() > _last) {
+            _fast = null;
+        } else {
+            _fast = _rotors.get(_last);
+        }
+        rebuild();
+    }
+
+    @Override
+    int convert(int c) {
+        if (_machine.advanceRotors() < _last) {
+            rebuild();
+        }
+        c = _plugboard.permute(c);
+        if (_fast == null) {
+            c = _inner[c];
+        } else {
+            c = _fast.convertBackward(_inner[_fast.convertForward(c)]);
+        }
+        return _plugboard.invert(c);
+    }
+
+    /** Recompute _inner from the current settings of the rotors between
+     *  the stationary segment and the fast rotor. */
+    private void rebuild() {
+        int[] turnaround = _machine.turnaround();
+        if (_fast == null) {
+            _inner = turnaround;
+            return;
+        }
+        int first = _machine.stationary();
+        if (_inner == null || _inner == turnaround
+                || _inner.length != turnaround.length) {
+            _inner = new int[turnaround.length];
+        }
+        for (int c = 0; c < _inner.length; c += 1) {
+            int e = c;
+            for (int i = _last - 1; i >= first; i -= 1) {
+                e = _rotors.get(i).convertForward(e);
+            }
+            e = turnaround[e];
+            for (int i = first; i < _last; i += 1) {
+                e = _rotors.get(i).convertBackward(e);
+            }
+            _inner[c] = e;
+        }
+    }
+
+    /** The machine I serve. */
+    private Machine _machine;
+    /** Its rotors, reflector first. */
+    private List<Rotor> _rotors;
+    /** Its plugboard. */
+    private Permutation _plugboard;
+    /** Slot number of the fast rotor. */
+    private int _last;
+    /** The fast rotor, or null if no rotor in the machine moves. */
+    private Rotor _fast;
+    /** Round-trip conversions through everything left of _fast. */
+    private int[] _inner;
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import java.beans.ConstructorProperties;
+
+/** A summary of a latency histogram, as published through JMX.  All
+ *  durations are in nanoseconds; quantiles are the upper bounds of the
+ *  power-of-two buckets that hold them.
+ *  @author Kevin Li
+ */
+public final class LatencySummary {
+
+    /** A summary of COUNT durations totalling TOTAL, the longest being MAX,
+     *  with quantiles P50, P90, and P99, and bucket counts BUCKETS. */
+    @ConstructorProperties({"count", "totalNanos", "maxNanos", "p50Nanos",
+                            "p90Nanos", "p99Nanos", "buckets"})
+    public LatencySummary(long count, long total, long max, long p50,
+                          long p90, long p99, long[] buckets) {
+        _count = count;
+        _total = total;
+        _max = max;
+        _p50 = p50;
+        _p90 = p90;
+        _p99 = p99;
+        _buckets = buckets.clone();
+    }
+
+    /** Return the number of durations. */
+    public long getCount() {
+        return _count;
+    }
+
+    /** Return the sum of the durations. */
+    public long getTotalNanos() {
+        return _total;
+    }
+
+    /** Return the longest duration. */
+    public long getMaxNanos() {
+        return _max;
+    }
+
+    /** Return the median. */
+    public long getP50Nanos() {
+        return _p50;
+    }
+
+    /** Return the 90th percentile. */
+    public long getP90Nanos() {
+        return _p90;
+    }
+
+    /** Return the 99th percentile. */
+    public long getP99Nanos() {
+        return _p99;
+    }
+
+    /** Return the bucket counts: entry K counts durations of K
+     *  significant bits. */
+    public long[] getBuckets() {
+        return _buckets.clone();
+    }
+
+    /** Number of durations. */
+    private final long _count;
+    /** Sum of durations. */
+    private final long _total;
+    /** Longest duration. */
+    private final long _max;
+    /** Quantiles. */
+    private final long _p50, _p90, _p99;
+    /** Bucket counts. */
+    private final long[] _buckets;
+}
@@ -0,0 +1,243 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static enigma.EnigmaException.*;
+
+/** A reader for Enigma input files that works directly on a large byte
+ *  buffer, decoding UTF-8 as it goes.  It distinguishes setting lines
+ *  (those whose first non-blank character is '*') from message lines,
+ *  and hands out the characters of a message line a chunk at a time with
+ *  whitespace removed, so no line ever needs to be held in memory whole
+ *  and no regular expressions are involved.
+ *  @author Kevin Li
+ */
+class LineReader {
+
+    /** A reader of the bytes of IN. */
+    LineReader(InputStream in) {
+        _in = in;
+        _bytes = new byte[BUFFER_SIZE];
+    }
+
+    /** Return true iff there is another line to be read.  Like
+     *  Scanner.hasNextLine, a terminator at the very end of the input
+     *  does not begin a new line. */
+    boolean hasNextLine() {
+        return peek() != EOF;
+    }
+
+    /** Skip blanks at the start of the current line, and return true iff
+     *  it is a setting line. */
+    boolean settingLine() {
+        while (isBlank(peek())) {
+            next();
+        }
+        return peek() == '*';
+    }
+
+    /** Return the rest of the current line, consuming its terminator. */
+    String readLine() {
+        StringBuilder line = new StringBuilder();
+        while (!isTerminator(peek()) && peek() != EOF) {
+            line.append((char) next());
+        }
+        endLine();
+        return line.toString();
+    }
+
+    /** Read up to CHUNK.length of the non-blank characters remaining in
+     *  the current line into CHUNK, returning the number read.  When the
+     *  line is exhausted, consume its terminator and return -1. */
+    int readMessage(char[] chunk) {
+        int len = 0;
+        while (len < chunk.length) {
+            int c = peek();
+            if (c == EOF || isTerminator(c)) {
+                if (len == 0) {
+                    endLine();
+                    return -1;
+                }
+                break;
+            }
+            next();
+            if (!isBlank(c)) {
+                chunk[len] = (char) c;
+                len += 1;
+            }
+        }
+        return len;
+    }
+
+    /** As for readMessage, but read whole Unicode code points into CHUNK,
+     *  so that a symbol outside the Basic Multilingual Plane takes one
+     *  entry rather than a surrogate pair. */
+    int readCodePoints(int[] chunk) {
+        int len = 0;
+        while (len < chunk.length) {
+            int c = peek();
+            if (c == EOF || isTerminator(c)) {
+                if (len == 0) {
+                    endLine();
+                    return -1;
+                }
+                break;
+            }
+            next();
+            if (Character.isHighSurrogate((char) c)
+                && Character.isLowSurrogate((char) peek())) {
+                c = Character.toCodePoint((char) c, (char) next());
+            }
+            if (!isBlank(c)) {
+                chunk[len] = c;
+                len += 1;
+            }
+        }
+        return len;
+    }
+
+    /** Consume the line terminator at the current position, if any. */
+    private void endLine() {
+        int c = peek();
+        if (c == EOF) {
+            return;
+        }
+        next();
+        if (c == '\r' && peek() == '\n') {
+            next();
+        }
+    }
+
+    /** Return true iff C is whitespace other than a line terminator, as
+     *  matched by \s in a regular expression. */
+    private static boolean isBlank(int c) {
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f';
+    }
+
+    /** Return true iff C ends a line. */
+    private static boolean isTerminator(int c) {
+        return c == '\n' || c == '\r' || c == '\u0085'
+            || c == '\u2028' || c == '\u2029';
+    }
+
+    /** Return the next character without consuming it, or EOF. */
+    private int peek() {
+        if (_ahead == NONE) {
+            _ahead = decode();
+        }
+        return _ahead;
+    }
+
+    /** Consume and return the next character, or EOF. */
+    private int next() {
+        int c = peek();
+        _ahead = NONE;
+        return c;
+    }
+
+    /** Decode the next UTF-16 character from the input, or return EOF.
+     *  Malformed input (a byte that cannot start a character, an overlong
+     *  form, an encoded surrogate, or a code point past U+10FFFF) decodes
+     *  as one REPLACEMENT, as GroupWriter writes unpaired surrogates. */
+    private int decode() {
+        if (_lowSurrogate != NONE) {
+            int c = _lowSurrogate;
+            _lowSurrogate = NONE;
+            return c;
+        }
+        int b = readByte();
+        if (b < 0x80) {
+            return b;
+        }
+        int extra, cp, least;
+        if (b > 0xF4) {
+            return REPLACEMENT;
+        } else if (b >= 0xF0) {
+            extra = 3;
+            cp = b & 0x07;
+            least = 0x10000;
+        } else if (b >= 0xE0) {
+            extra = 2;
+            cp = b & 0x0F;
+            least = 0x800;
+        } else if (b >= 0xC2) {
+            extra = 1;
+            cp = b & 0x1F;
+            least = 0x80;
+        } else {
+            return REPLACEMENT;
+        }
+        for (int i = 0; i < extra; i += 1) {
+            if (_pos == _limit && !fill()) {
+                return REPLACEMENT;
+            }
+            int cont = _bytes[_pos] & 0xFF;
+            if ((cont & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+            _pos += 1;
+            cp = (cp << 6) | (cont & 0x3F);
+        }
+        if (cp < least || cp > Character.MAX_CODE_POINT
+            || (cp >= Character.MIN_SURROGATE
+                && cp <= Character.MAX_SURROGATE)) {
+            return REPLACEMENT;
+        }
+        if (Character.isSupplementaryCodePoint(cp)) {
+            _lowSurrogate = Character.lowSurrogate(cp);
+            return Character.highSurrogate(cp);
+        }
+        return cp;
+    }
+
+    /** Return the next byte of input as an unsigned value, or EOF. */
+    private int readByte() {
+        if (_pos == _limit && !fill()) {
+            return EOF;
+        }
+        int b = _bytes[_pos] & 0xFF;
+        _pos += 1;
+        return b;
+    }
+
+    /** Refill my buffer, returning false at the end of the input. */
+    private boolean fill() {
+        try {
+            int n;
+            do {
+                n = _in.read(_bytes, 0, _bytes.length);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            _pos = 0;
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Value returned at the end of the input. */
+    private static final int EOF = -1;
+    /** Marks an empty lookahead or surrogate slot. */
+    private static final int NONE = -2;
+    /** Character substituted for malformed input. */
+    private static final int REPLACEMENT = 0xFFFD;
+    /** Size of my byte buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Source of bytes. */
+    private final InputStream _in;
+    /** Buffered input. */
+    private final byte[] _bytes;
+    /** Position of the next unread byte in _bytes. */
+    private int _pos;
+    /** Number of valid bytes in _bytes. */
+    private int _limit;
+    /** Next character, if already decoded, or NONE. */
+    private int _ahead = NONE;
+    /** Second half of a decoded surrogate pair, or NONE. */
+    private int _lowSurrogate = NONE;
+}
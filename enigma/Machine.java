@@ -1,10 +1,15 @@
 package enigma;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 
 import static enigma.EnigmaException.*;
@@ -23,6 +28,19 @@ class Machine {
     private List<Rotor> rotorsUsed;
     /**Plugboard of the machine.*/
     private Permutation _plugboard;
+    /** Number of leading slots (counting the reflector) whose rotors
+     *  never move. */
+    private int _stationary;
+    /** Composition of the rotors in the first _stationary slots, in both
+     *  directions, at their current settings. */
+    private int[] _turnaround;
+    /** Stepping rules of my current rotors. */
+    private Stepper _stepper;
+    /** Rotor positions set by the last call to setRotors, or null if
+     *  rotors have been inserted since. */
+    private int[] _origin;
+    /** Converts my characters, or null to walk the rotors myself. */
+    private Engine _engine;
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
      *  available rotors. */
@@ -39,6 +57,27 @@ class Machine {
         rotorsUsed = new ArrayList<>();
     }
 
+    /** Return a new machine with my alphabet, slots, and pawls, and copies
+     *  of all my available rotors, with no rotors inserted.  The copy can
+     *  be used independently of me (in another thread, for example). */
+    Machine copy() {
+        List<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : rotorss.values()) {
+            rotors.add(rotor.copy());
+        }
+        return new Machine(_alphabet, _numRotors, _pawls, rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return all the rotors available to me. */
+    Collection<Rotor> allRotors() {
+        return rotorss.values();
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -53,7 +92,12 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        if (Metrics.ENABLED) {
+            Metrics.INSERTIONS.increment();
+        }
         if (rotors.length > 0) {
+            sync();
+            _origin = null;
             rotorsUsed.clear();
             int moving = 0;
             for (String rotor : rotors) {
@@ -78,45 +122,194 @@ class Machine {
             if (numPawls() != moving) {
                 throw error("Pawls doesn't match the # of moving rotors");
             }
+            _stepper = new Stepper(rotorsUsed, _pawls);
+            _stationary = 1;
+            while (_stationary < _numRotors && !canMove(_stationary)) {
+                _stationary += 1;
+            }
+            buildTurnaround();
+            reload();
+        }
+    }
+
+    /** Return true iff the rotor in slot I can ever be advanced. */
+    private boolean canMove(int i) {
+        return rotorsUsed.get(i).rotates()
+                && (i == _numRotors - 1 || i >= _numRotors - _pawls);
+    }
+
+    /** Compose the rotors in slots 0 .. _stationary - 1, which never move,
+     *  into _turnaround: the path from the right of that segment, through
+     *  the reflector and back again. */
+    private void buildTurnaround() {
+        _turnaround = new int[_alphabet.size()];
+        for (int c = 0; c < _turnaround.length; c += 1) {
+            int e = c;
+            for (int i = _stationary - 1; i >= 0; i -= 1) {
+                e = rotorsUsed.get(i).convertForward(e);
+            }
+            for (int i = 1; i < _stationary; i += 1) {
+                e = rotorsUsed.get(i).convertBackward(e);
+            }
+            _turnaround[c] = e;
         }
     }
 
     /** Set my rotors according to SETTING, which must be a string of
-     *  numRotors()-1 upper-case letters. The first letter refers to the
-     *  leftmost rotor setting (not counting the reflector).  */
+     *  numRotors()-1 upper-case letters (code points, if my alphabet has
+     *  symbols outside the Basic Multilingual Plane). The first letter
+     *  refers to the leftmost rotor setting (not counting the reflector).
+     *  Rotors that never move are only consulted here and in insertRotors,
+     *  so they should not otherwise be set while in use. */
     void setRotors(String setting) {
-        if (setting.length() != numRotors() - 1) {
+        int[] points = setting.codePoints().toArray();
+        if (points.length != numRotors() - 1) {
+            throw error("Setting is not of correct length");
+        }
+        for (int i = 0; i < points.length; i++) {
+            points[i] = _alphabet.indexOfCodePoint(points[i]);
+        }
+        setRotors(points);
+    }
+
+    /** Set my rotors as for setRotors(String), where POSNS[I - 1] is the
+     *  setting of the rotor in slot I as an index into my alphabet. */
+    void setRotors(int[] posns) {
+        if (Metrics.ENABLED) {
+            Metrics.SETTINGS.increment();
+        }
+        if (posns.length != numRotors() - 1) {
             throw error("Setting is not of correct length");
         }
-        char[] chars = setting.toCharArray();
         for (int i = 1; i < _numRotors; i++) {
-            if (!_alphabet.contains(chars[i - 1])) {
+            int index = posns[i - 1];
+            if (index < 0 || index >= _alphabet.size()) {
                 throw error("Setting contains invalid value");
             }
-            rotorsUsed.get(i).set(chars[i - 1]);
+            rotorsUsed.get(i).set(index);
+        }
+        _origin = new int[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            _origin[i] = rotorsUsed.get(i).setting();
+        }
+        buildTurnaround();
+        reload();
+    }
+
+    /** Set my rotors to the positions they would have after converting
+     *  POSITION characters, starting from the settings last given to
+     *  setRotors.  The cost depends on the number and size of my rotors,
+     *  not on POSITION. */
+    void seek(long position) {
+        if (_origin == null) {
+            throw error("rotors have not been set");
+        }
+        if (position < 0) {
+            throw error("negative position");
+        }
+        int[] posns = _origin.clone();
+        _stepper.advance(posns, position);
+        sync();
+        for (int i = 1; i < _numRotors; i++) {
+            rotorsUsed.get(i).set(posns[i]);
+        }
+        reload();
+    }
+
+    /** Return the stepping rules of my current rotors. */
+    Stepper stepper() {
+        return _stepper;
+    }
+
+    /** Use ENGINE to convert characters from now on, or my own walk over
+     *  the rotors if ENGINE is null. */
+    void setEngine(Engine engine) {
+        sync();
+        _engine = engine;
+        reload();
+    }
+
+    /** Bring my rotors up to date with any positions my engine keeps. */
+    private void sync() {
+        if (_engine != null) {
+            _engine.store();
+        }
+    }
+
+    /** Tell my engine, if any, that my rotors, settings, or plugboard
+     *  have changed. */
+    private void reload() {
+        if (_engine != null && !rotorsUsed.isEmpty()) {
+            _engine.load(this);
         }
     }
     /**Getter of the list rotorUsed.
      * @return List<Rotor>*/
     List<Rotor> getRotorsUsed() {
+        sync();
         return rotorsUsed;
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        sync();
         this._plugboard = plugboard;
+        reload();
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the number of leading slots (counting the reflector) whose
+     *  rotors never move. */
+    int stationary() {
+        return _stationary;
+    }
+
+    /** Return the composition of the rotors in the first stationary()
+     *  slots, from the right of that segment to the reflector and back.
+     *  The result is shared and must not be modified. */
+    int[] turnaround() {
+        return _turnaround;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
+        if (Metrics.ENABLED) {
+            Metrics.CHARACTERS.increment();
+        }
+        if (_engine != null) {
+            return _engine.convert(c);
+        }
         c = _plugboard.permute(c);
+        advanceRotors();
+        for (int i = rotorsUsed.size() - 1; i >= _stationary; i--) {
+            c = rotorsUsed.get(i).convertForward(c);
+        }
+        c = _turnaround[c];
+        for (int i = _stationary; i < rotorsUsed.size(); i++) {
+            c = rotorsUsed.get(i).convertBackward(c);
+        }
+        c = _plugboard.invert(c);
+        return c;
+    }
+
+    /** Advance my rotors as for one keypress.  Each rotor in a pawl slot
+     *  moves if the rotor to its right is at a notch, and a rotor at a
+     *  notch moves along with the rotor to its left.  Returns the
+     *  leftmost slot whose rotor moved, or numRotors() if none did. */
+    int advanceRotors() {
+        int moved = rotorsUsed.size();
         for (int i = rotorsUsed.size() - 1; i >= 0; i--) {
             rotorsUsed.get(i).atNotch();
         }
         if (rotorsUsed.get(rotorsUsed.size() - 1).rotates()) {
             rotorsUsed.get(rotorsUsed.size() - 1).advance();
+            moved = rotorsUsed.size() - 1;
         }
         for (int i = rotorsUsed.size() - 1; i >= 0; i--) {
             if (i - 1 >= numRotors() - numPawls()
@@ -124,48 +317,220 @@ class Machine {
                     && rotorsUsed.get(i).advanced()
                     && rotorsUsed.get(i - 1).rotates()) {
                 rotorsUsed.get(i - 1).advance();
+                moved = i - 1;
             } else if (i - 1 >= numRotors() - numPawls()
                     && rotorsUsed.get(i).isOnNotch()
                     && rotorsUsed.get(i - 1).rotates()) {
                 rotorsUsed.get(i - 1).advance();
                 rotorsUsed.get(i).advance();
+                moved = i - 1;
             }
-
-            c = rotorsUsed.get(i).convertForward(c);
         }
         for (int i = 1; i < rotorsUsed.size(); i++) {
-            c = rotorsUsed.get(i).convertBackward(c);
             rotorsUsed.get(i).setAdvanced(false);
         }
-        c = _plugboard.invert(c);
-        return c;
+        if (Metrics.ENABLED && moved < rotorsUsed.size() - 1) {
+            Metrics.CARRIES.increment();
+        }
+        return moved;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        msg = msg.toUpperCase();
-        String message = "";
-        for (char partMsg : msg.toCharArray()) {
-            if (!_alphabet.contains(partMsg)) {
+        char[] chars = msg.toUpperCase().toCharArray();
+        convert(chars, 0, chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    /** Return the conversion of the Unicode code point CP (after converting
+     *  it to upper case), updating the state of the rotors accordingly. */
+    int convertCodePoint(int cp) {
+        int index = _alphabet.indexOfCodePoint(Character.toUpperCase(cp));
+        if (index < 0) {
+            throw error("Value is not part of alphabet");
+        }
+        return _alphabet.toCodePoint(convert(index));
+    }
+
+    /** Convert the LEN code points IN[INOFF .. INOFF + LEN - 1] as for
+     *  convertCodePoint, storing the results in OUT[OUTOFF .. OUTOFF + LEN
+     *  - 1].  IN and OUT may be the same array, and the spans may
+     *  coincide. */
+    void convertCodePoints(int[] in, int inOff, int[] out, int outOff,
+                           int len) {
+        Alphabet alpha = _alphabet;
+        for (int i = 0; i < len; i += 1) {
+            int index =
+                alpha.indexOfCodePoint(Character.toUpperCase(in[inOff + i]));
+            if (index < 0) {
                 throw error("Value is not part of alphabet");
             }
-            message += _alphabet.toChar(convert(_alphabet.toInt(partMsg)));
+            out[outOff + i] = alpha.toCodePoint(convert(index));
+        }
+    }
+
+    /** Convert the LEN alphabet indices IN[INOFF .. INOFF + LEN - 1],
+     *  storing the results in OUT[OUTOFF .. OUTOFF + LEN - 1] and updating
+     *  the state of the rotors accordingly.  IN and OUT may be the same
+     *  array, and the spans may coincide. */
+    void convert(int[] in, int inOff, int[] out, int outOff, int len) {
+        for (int i = 0; i < len; i += 1) {
+            out[outOff + i] = convert(in[inOff + i]);
+        }
+    }
+
+    /** Convert the LEN characters IN[INOFF .. INOFF + LEN - 1] (after
+     *  converting them to upper case), storing the results in
+     *  OUT[OUTOFF .. OUTOFF + LEN - 1] and updating the state of the rotors
+     *  accordingly.  IN and OUT may be the same array, and the spans may
+     *  coincide. */
+    void convert(char[] in, int inOff, char[] out, int outOff, int len) {
+        Alphabet alpha = _alphabet;
+        for (int i = 0; i < len; i += 1) {
+            int index = alpha.indexOf(Character.toUpperCase(in[inOff + i]));
+            if (index < 0) {
+                throw error("Value is not part of alphabet");
+            }
+            out[outOff + i] = alpha.toChar(convert(index));
+        }
+    }
+
+    /** Convert all remaining characters of IN, as for
+     *  convert(char[], int, char[], int, int), putting the results into OUT,
+     *  which must have at least as many characters remaining.  Advances
+     *  the positions of both buffers. */
+    void convert(CharBuffer in, CharBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw error("output buffer too small");
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            convert(in.array(), in.arrayOffset() + in.position(),
+                    out.array(), out.arrayOffset() + out.position(), len);
+            in.position(in.position() + len);
+            out.position(out.position() + len);
+        } else {
+            Alphabet alpha = _alphabet;
+            for (int i = 0; i < len; i += 1) {
+                int index = alpha.indexOf(Character.toUpperCase(in.get()));
+                if (index < 0) {
+                    throw error("Value is not part of alphabet");
+                }
+                out.put(alpha.toChar(convert(index)));
+            }
+        }
+    }
+    /** Convert LEN characters as for convert(char[], int, char[], int, int),
+     *  dividing the work among the threads of POOL.  The starting rotor
+     *  positions of each piece are computed with a Stepper rather than by
+     *  converting the text before it, so the result, and the final state
+     *  of the rotors, are the same as for a sequential conversion. */
+    void convertParallel(char[] in, int inOff, char[] out, int outOff,
+                         int len, ForkJoinPool pool) {
+        if (len <= ParallelConversion.PIECE_SIZE) {
+            convert(in, inOff, out, outOff, len);
+            return;
+        }
+        FlatEngine base = new FlatEngine();
+        base.load(this);
+        pool.invoke(new ParallelConversion(base, _alphabet,
+                                           in, inOff, out, outOff, 0, len));
+        int[] posns = base.fork(len).positions();
+        for (int i = 1; i < _numRotors; i++) {
+            rotorsUsed.get(i).set(posns[i]);
+        }
+        reload();
+    }
+
+    /** Convert the characters read from IN until its end, writing the
+     *  results to OUT, as for convert(String), except that whitespace is
+     *  copied to OUT unchanged.  Text passes through a small buffer that
+     *  is reused between calls, so neither the input nor the output is
+     *  ever held in memory as a whole, and the rotors carry their state
+     *  from one chunk to the next. */
+    void convert(Reader in, Appendable out) {
+        char[] buffer = buffer();
+        CharBuffer view = CharBuffer.wrap(buffer);
+        try {
+            int len;
+            while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+                convertText(buffer, len);
+                write(buffer, view, len, out);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Convert the characters of IN, writing the results to OUT, as for
+     *  convert(Reader, Appendable). */
+    void convert(CharSequence in, Appendable out) {
+        char[] buffer = buffer();
+        CharBuffer view = CharBuffer.wrap(buffer);
+        try {
+            for (int start = 0; start < in.length(); start += buffer.length) {
+                int len = Math.min(buffer.length, in.length() - start);
+                for (int i = 0; i < len; i += 1) {
+                    buffer[i] = in.charAt(start + i);
+                }
+                convertText(buffer, len);
+                write(buffer, view, len, out);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Return my reusable streaming buffer. */
+    private char[] buffer() {
+        if (_buffer == null) {
+            _buffer = new char[BUFFER_SIZE];
         }
-        return message;
+        return _buffer;
     }
+
+    /** Convert the first LEN characters of TEXT in place, leaving
+     *  whitespace unchanged. */
+    private void convertText(char[] text, int len) {
+        int start = 0;
+        for (int i = 0; i <= len; i += 1) {
+            if (i == len || Character.isWhitespace(text[i])) {
+                convert(text, start, text, start, i - start);
+                start = i + 1;
+            }
+        }
+    }
+
+    /** Write the first LEN characters of BUFFER, of which VIEW is a
+     *  wrapper, to OUT. */
+    private static void write(char[] buffer, CharBuffer view, int len,
+                              Appendable out) throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(buffer, 0, len);
+        } else {
+            out.append(view, 0, len);
+        }
+    }
+
     /**Returns the complete setting of the machine. TESTING PURPOSES*/
     /** @return String*/
     String getSetting() {
-        String setting = "";
+        sync();
+        StringBuilder setting = new StringBuilder();
         for (Rotor r : rotorsUsed) {
-            setting += _alphabet.toChar(r.setting());
+            setting.appendCodePoint(_alphabet.toCodePoint(r.setting()));
         }
-        return setting;
+        return setting.toString();
     }
 
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
+    /** Size of the buffer used for streaming conversions. */
+    private static final int BUFFER_SIZE = 8192;
+    /** Buffer for streaming conversions, or null until one is needed. */
+    private char[] _buffer;
+
 }
@@ -1,14 +1,29 @@
 package enigma;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
-import java.util.Arrays;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static enigma.EnigmaException.*;
 
@@ -25,9 +40,67 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  The system property enigma.engine, if set,
+     *  names the Engine used for conversion (see Engine.named), and
+     *  enigma.groupSize, if set, the number of characters in each group
+     *  of output (5 by default).  If the property enigma.threads is greater
+     *  than 1, long message lines are converted in pieces by that many
+     *  threads.  If the property enigma.messageThreads is greater than 1,
+     *  that many messages are converted at once instead.  If the property
+     *  enigma.tableStore names a file of rotor tables (see TableStore),
+     *  tables are read from it, and the file is created if it does not
+     *  exist.  If the property enigma.metrics is true, counts and
+     *  latencies are published through JMX (see Metrics).  Flight
+     *  recordings capture the stages of the run (see Events).
+     *
+     *  ARGS[0] may instead name a machine snapshot (see Snapshot), which
+     *  is loaded in place of the configuration.  A snapshot of the
+     *  configuration file CONF is written to OUT by the arguments
+     *  --compile CONF OUT.
+     *
+     *  The arguments --search CONF CIPHER instead search for the rotor
+     *  orders and settings of the machine CONF (a configuration or
+     *  snapshot) that best decrypt the ciphertext in the file CIPHER (see
+     *  Search), and write the best to the standard output, each as its
+     *  score and setting line followed by its decryption.  The decryptions
+     *  are scored by their index of coincidence, or by their n-gram
+     *  fitness if the property enigma.ngrams names a file of n-gram counts
+     *  (see NGramScorer).  The property enigma.candidates gives the number
+     *  of candidates written (10 by default), and enigma.threads, if set,
+     *  the number of threads searching.  If the property enigma.plugs is
+     *  set, the search scores by index of coincidence, which a wrong
+     *  plugboard disturbs less, and the plugboard of each candidate, with
+     *  at most that many pairs, is then recovered by hill climbing on
+     *  n-gram fitness (see PlugboardClimber), which requires
+     *  enigma.ngrams.
+     *
+     *  The arguments --bombe CONF CIPHER CRIB [OFFSET] run a bombe (see
+     *  Bombe) on the machine CONF, with the guessed plaintext CRIB placed
+     *  against the ciphertext in the file CIPHER starting at position
+     *  OFFSET (0 by default).  Each stop is written to the standard
+     *  output as a setting line, with the plugboard pairs the bombe
+     *  deduced, followed by the decryption that setting gives.  The
+     *  property enigma.stops limits the number of stops (100 by
+     *  default), and enigma.threads is as for --search. */
     public static void main(String... args) {
         try {
+            if (args.length == 3 && args[0].equals("--compile")) {
+                Machine machine = new Main(new String[] { args[1] })
+                    .readConfig();
+                Snapshot.write(machine, Paths.get(args[2]));
+                return;
+            }
+            if (args.length == 3 && args[0].equals("--search")) {
+                new Main(new String[] { args[1] }).search(args[2]);
+                return;
+            }
+            if ((args.length == 4 || args.length == 5)
+                && args[0].equals("--bombe")) {
+                new Main(new String[] { args[1] })
+                    .bombe(args[2], args[3],
+                           args.length == 5 ? offset(args[4]) : 0);
+                return;
+            }
             new Main(args).process();
             return;
         } catch (EnigmaException excp) {
@@ -36,40 +109,66 @@ public final class Main {
         System.exit(1);
     }
 
+    /** Return the crib offset given by the argument ARG. */
+    private static int offset(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException excp) {
+            throw error("crib offset must be an integer: %s", arg);
+        }
+    }
+
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        if (Snapshot.isSnapshot(Paths.get(args[0]))) {
+            _snapshot = Paths.get(args[0]);
+        } else {
+            _configName = args[0];
+            _config = getInput(args[0]);
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = new LineReader(getInputStream(args[1]));
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineReader(System.in);
         }
 
+        WritableByteChannel output;
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            output = new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+        _output = new GroupWriter(output,
+                Integer.getInteger("enigma.groupSize", GROUP_SIZE));
+    }
+
+    /** Return the contents of the file named NAME, decoded as UTF-8. */
+    private String getInput(String name) {
+        try {
+            return Files.readString(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return an InputStream reading from the file named NAME. */
+    private InputStream getInputStream(String name) {
         try {
-            return new Scanner(new File(name));
+            return new FileInputStream(name);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a channel writing to the file named NAME. */
+    private WritableByteChannel getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new FileOutputStream(name).getChannel();
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -79,179 +178,556 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine enigma = readConfig();
+        Metrics.register();
+        try {
+            processMessages();
+            endMessage();
+        } catch (EnigmaException excp) {
+            _output.dropLine();
+            throw excp;
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Apply the machine described by _config to the messages in _input,
+     *  as for process. */
+    private void processMessages() {
+        Machine enigma = machine();
+        enigma.setEngine(Engine.named(System.getProperty("enigma.engine")));
+        if (_codePoints) {
+            processCodePoints(enigma);
+            return;
+        }
+        int workers = Integer.getInteger("enigma.messageThreads", 1);
+        if (workers > 1) {
+            processConcurrently(enigma, workers);
+            return;
+        }
+        int threads = Integer.getInteger("enigma.threads", 1);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        char[] chunk = new char[pool == null ? CHUNK_SIZE
+                                : threads * ParallelConversion.PIECE_SIZE];
+        try {
+            processMessages(enigma, pool, chunk);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Apply ENIGMA to the messages in _input, as for process, reading
+     *  them into CHUNK, and converting each chunk in parallel in POOL,
+     *  unless it is null. */
+    private void processMessages(Machine enigma, ForkJoinPool pool,
+                                 char[] chunk) {
         while (_input.hasNextLine()) {
-            String command = _input.nextLine();
-            if (command.indexOf("*") != -1) {
-                int index = command.indexOf('(');
-                int remove = command.indexOf('*');
-                if (index != -1) {
-                    String plugs = command.substring(index);
-                    Permutation plugBoard = new Permutation(plugs, _alphabet);
-                    enigma.setPlugboard(plugBoard);
-                    command = command.substring(0, index - 1);
-                }
-                command = command.substring(remove + 1);
-                String[] rotors = command.trim().split("\\s+");
-                enigma.insertRotors(
-                        Arrays.copyOfRange(rotors, 0, rotors.length - 1));
-                char[] array = rotors[rotors.length - 1].toCharArray();
-                String set = "";
-                for (char c : array) {
-                    set += _alphabet.toChar((_alphabet.toInt(c) + dif)
-                            % _alphabet.size());
+            if (_input.settingLine()) {
+                endMessage();
+                setUp(enigma, _input.readLine());
+                startMessage();
+            } else if (enigma.getRotorsUsed().isEmpty()) {
+                if (_input.readMessage(chunk) != -1) {
+                    throw error("Must start with a setting line");
                 }
-                enigma.setRotors(set);
             } else {
-                if ((enigma.getRotorsUsed().equals(null)
-                        || enigma.getRotorsUsed().size() == 0)
-                        && command.trim().equals("")) {
-                    continue;
+                int len;
+                while ((len = _input.readMessage(chunk)) != -1) {
+                    if (pool == null) {
+                        enigma.convert(chunk, 0, chunk, 0, len);
+                    } else {
+                        enigma.convertParallel(chunk, 0, chunk, 0, len, pool);
+                    }
+                    _output.write(chunk, 0, len);
+                    _message.length += len;
+                }
+                _output.endLine();
+                _message.lines += 1;
+            }
+        }
+    }
+
+    /** Search the settings of the machine described by _config (or
+     *  _snapshot) for those that best decrypt the contents of the file
+     *  named NAME, and write the best to _output, as described in the
+     *  comment on main. */
+    private void search(String name) {
+        Machine enigma = machine();
+        int[] ciphertext = indices(getInput(name));
+        String ngrams = System.getProperty("enigma.ngrams");
+        NGramScorer fitness = ngrams == null ? null
+            : new NGramScorer(_alphabet, ngrams, getInput(ngrams));
+        Integer plugs = Integer.getInteger("enigma.plugs");
+        if (plugs != null && fitness == null) {
+            throw error("plugboard recovery needs enigma.ngrams");
+        }
+        Scorer scorer = fitness == null || plugs != null
+            ? new CoincidenceScorer(_alphabet.size()) : fitness;
+        Search search =
+            new Search(enigma, ciphertext, scorer,
+                       Integer.getInteger("enigma.candidates", CANDIDATES));
+        ForkJoinPool pool = searchPool();
+        try {
+            List<Candidate> best = search.search(pool);
+            if (plugs != null) {
+                best = recoverPlugboards(enigma, ciphertext, fitness, best,
+                                         plugs);
+            }
+            for (Candidate candidate : best) {
+                byte[] line = (candidate + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+                _output.writeFormatted(line, 0, line.length);
+                int[] text = candidate.plaintext().codePoints().toArray();
+                _output.writeCodePoints(text, 0, text.length);
+                _output.endLine();
+            }
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+            _output.flush();
+        }
+    }
+
+    /** Run a bombe (see Bombe) on the machine described by _config (or
+     *  _snapshot) with CRIB placed against the ciphertext in the file
+     *  named NAME at position OFFSET, and write its stops to _output, as
+     *  described in the comment on main. */
+    private void bombe(String name, String crib, int offset) {
+        Machine enigma = machine();
+        int[] ciphertext = indices(getInput(name));
+        Menu menu = new Menu(_alphabet, indices(crib), ciphertext, offset);
+        Bombe bombe = new Bombe(enigma, menu);
+        ForkJoinPool pool = searchPool();
+        try {
+            List<String> stops =
+                bombe.run(pool, Integer.getInteger("enigma.stops", STOPS));
+            Machine machine = enigma.copy();
+            int[] text = new int[ciphertext.length];
+            for (String stop : stops) {
+                byte[] line = (stop + "\n").getBytes(StandardCharsets.UTF_8);
+                _output.writeFormatted(line, 0, line.length);
+                machine.setPlugboard(new Permutation("", _alphabet));
+                setUp(machine, stop);
+                machine.convert(ciphertext, 0, text, 0, text.length);
+                for (int i = 0; i < text.length; i += 1) {
+                    text[i] = _alphabet.toCodePoint(text[i]);
                 }
-                if (enigma.getRotorsUsed().equals(null)
-                        || enigma.getRotorsUsed().size() == 0) {
+                _output.writeCodePoints(text, 0, text.length);
+                _output.endLine();
+            }
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) {
+                pool.shutdown();
+            }
+            _output.flush();
+        }
+    }
+
+    /** Return the alphabet indices of the symbols of TEXT, ignoring
+     *  whitespace and converting letters to upper case. */
+    private int[] indices(String text) {
+        int[] result = text.codePoints()
+            .filter(c -> !Character.isWhitespace(c))
+            .map(c -> _alphabet.indexOfCodePoint(Character.toUpperCase(c)))
+            .toArray();
+        for (int index : result) {
+            if (index < 0) {
+                throw error("Value is not part of alphabet");
+            }
+        }
+        return result;
+    }
+
+    /** Return the pool for searches: one with enigma.threads threads, if
+     *  that is set, and otherwise the common pool. */
+    private static ForkJoinPool searchPool() {
+        Integer threads = Integer.getInteger("enigma.threads");
+        return threads == null ? ForkJoinPool.commonPool()
+            : new ForkJoinPool(threads);
+    }
+
+    /** Return CANDIDATES, settings of ENIGMA found by a search, with the
+     *  plugboards, of at most PAIRS pairs, that do best by SCORER at
+     *  decrypting CIPHERTEXT, best first. */
+    private List<Candidate> recoverPlugboards(Machine enigma,
+                                              int[] ciphertext,
+                                              NGramScorer scorer,
+                                              List<Candidate> candidates,
+                                              int pairs) {
+        List<Candidate> result = new ArrayList<>();
+        Machine machine = enigma.copy();
+        for (Candidate candidate : candidates) {
+            setUp(machine, candidate.setting());
+            PlugboardClimber climber =
+                new PlugboardClimber(machine, ciphertext, scorer);
+            Permutation plugboard = climber.climb(machine.plugboard(), pairs);
+            String setting = candidate.setting();
+            int cycles = setting.indexOf('(');
+            if (cycles != -1) {
+                setting = setting.substring(0, cycles).trim();
+            }
+            if (!plugboard.checkMap()) {
+                setting += " " + plugboard.cycles();
+            }
+            StringBuilder plaintext = new StringBuilder();
+            for (int index : climber.plaintext()) {
+                plaintext.appendCodePoint(_alphabet.toCodePoint(index));
+            }
+            result.add(new Candidate(setting, plaintext.toString(),
+                                     climber.score()));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the machine described by _snapshot, if there is one, and
+     *  otherwise by _config, reading or creating the table file named by
+     *  enigma.tableStore, if any. */
+    private Machine machine() {
+        Events.ConfigLoad event = new Events.ConfigLoad();
+        event.begin();
+        Machine enigma = loadMachine();
+        event.source = _snapshot != null ? _snapshot.toString() : _configName;
+        event.snapshot = _snapshot != null;
+        event.rotors = enigma.allRotors().size();
+        event.alphabetSize = _alphabet.size();
+        event.commit();
+        return enigma;
+    }
+
+    /** Return the machine described by _snapshot or _config, as for
+     *  machine. */
+    private Machine loadMachine() {
+        if (_snapshot != null) {
+            Machine enigma = Snapshot.load(_snapshot);
+            _alphabet = enigma.alphabet();
+            _codePoints = _alphabet instanceof CodePointTable;
+            return enigma;
+        }
+        String store = System.getProperty("enigma.tableStore");
+        if (store != null && Files.exists(Paths.get(store))) {
+            RotorTable.useStore(TableStore.map(Paths.get(store)));
+            store = null;
+        }
+        Machine enigma = readConfig();
+        if (store != null) {
+            List<Permutation> wirings = new ArrayList<>();
+            for (Rotor rotor : enigma.allRotors()) {
+                wirings.add(rotor.permutation());
+            }
+            TableStore.write(Paths.get(store), wirings);
+        }
+        return enigma;
+    }
+
+    /** Apply ENIGMA to the messages in _input, as for process, a code point
+     *  at a time rather than a char at a time.  Used for alphabets with
+     *  symbols outside the Basic Multilingual Plane. */
+    private void processCodePoints(Machine enigma) {
+        int[] chunk = new int[CHUNK_SIZE];
+        while (_input.hasNextLine()) {
+            if (_input.settingLine()) {
+                endMessage();
+                setUp(enigma, _input.readLine());
+                startMessage();
+            } else if (enigma.getRotorsUsed().isEmpty()) {
+                if (_input.readCodePoints(chunk) != -1) {
                     throw error("Must start with a setting line");
                 }
-                String line = enigma.convert(
-                        command.replaceAll("\\s+", "").trim());
-                printMessageLine(line);
+            } else {
+                int len;
+                while ((len = _input.readCodePoints(chunk)) != -1) {
+                    enigma.convertCodePoints(chunk, 0, chunk, 0, len);
+                    _output.writeCodePoints(chunk, 0, len);
+                    _message.length += len;
+                }
+                _output.endLine();
+                _message.lines += 1;
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Apply copies of ENIGMA to the messages in _input, as for process,
+     *  converting up to WORKERS messages at once.  A message is a setting
+     *  line and the message lines after it, and depends only on that
+     *  setting line and the plugboard in force (which a setting line
+     *  without cycles inherits from the one before it).  The results are
+     *  written in their original order, and the first error stops the
+     *  output at the same point as it would in sequential processing. */
+    private void processConcurrently(Machine enigma, int workers) {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(() -> {
+            Machine copy = enigma.copy();
+            copy.setEngine(Engine.named(System.getProperty("enigma.engine")));
+            return copy;
+        });
+        Deque<Future<Result>> pending = new ArrayDeque<>();
         try {
-            int pawls = 0;
-            int numRotor = 0;
-            List<Rotor> rotors = new ArrayList<Rotor>();
-            if (_config.hasNext()) {
-                String alphabet = _config.nextLine().trim();
-                if (alphabet.indexOf("-") != -1) {
-                    String[] string = alphabet.split("\\-");
-                    for (String s : string) {
-                        for (char c : s.toCharArray()) {
-                            if (!Character.isLetter(c) && !Character.isDigit(c)
-                                    && !Character.isAlphabetic(c)) {
-                                throw error("Alphabet is not valid");
-                            }
-                        }
+            char[] chunk = new char[CHUNK_SIZE];
+            String plugboard = "";
+            Message message = null;
+            while (_input.hasNextLine()) {
+                if (_input.settingLine()) {
+                    if (message != null) {
+                        pending.add(pool.submit(message.task(machines)));
+                    }
+                    String setting = _input.readLine();
+                    int cycles = setting.indexOf('(');
+                    if (cycles != -1) {
+                        plugboard = setting.substring(cycles);
+                    }
+                    message = new Message(setting, plugboard);
+                } else if (message == null) {
+                    if (_input.readMessage(chunk) != -1) {
+                        throw error("Must start with a setting line");
                     }
-                    _alphabet = new CharacterRange(alphabet.charAt(0),
-                            alphabet.charAt(alphabet.length() - 1));
                 } else {
-                    int min = Integer.MAX_VALUE;
-                    int max = Integer.MIN_VALUE;
-                    char first = alphabet.charAt(0);
-                    for (char a : alphabet.toCharArray()) {
-                        if (!Character.isLetter(a) && !Character.isDigit(a)
-                                && !Character.isAlphabetic(a)) {
-                            throw error("Alphabet is not valid");
-                        }
-                        if ((int) a < min) {
-                            min = (int) a;
-                        }
-                        if ((int) a > max) {
-                            max = (int) a;
-                        }
+                    StringBuilder line = new StringBuilder();
+                    int len;
+                    while ((len = _input.readMessage(chunk)) != -1) {
+                        line.append(chunk, 0, len);
                     }
-                    _alphabet = new CharacterRange((char) min, (char) max);
-                    dif = (int) first - (int) min;
+                    message.add(line);
                 }
-            }
-            if (_config.hasNext()) {
-                numRotor = _config.nextInt();
-                pawls = _config.nextInt();
-                if (numRotor <= pawls) {
-                    throw error("Rotors must be greater than pawls");
+                while (pending.size() >= workers * BACKLOG) {
+                    writeResult(pending.remove());
                 }
             }
-            while (_config.hasNext()) {
-                rotors.add(readRotor());
+            if (message != null) {
+                pending.add(pool.submit(message.task(machines)));
+            }
+            while (!pending.isEmpty()) {
+                writeResult(pending.remove());
             }
-            return new Machine(_alphabet, numRotor, pawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("NumRotors and pawls must be integers");
+        } finally {
+            pool.shutdownNow();
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Write the output of the message converted by RESULT, and report
+     *  its error, if any. */
+    private void writeResult(Future<Result> result) {
+        Result done;
         try {
-            String nextLine = _config.nextLine();
-            if (nextLine.trim().equals("")) {
-                nextLine = _config.nextLine();
+            done = result.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            int index = nextLine.indexOf('(');
-            String subString1 = nextLine.substring(0, index - 1);
-            String subString2 = nextLine.substring(index);
-            String[] rotorDet = subString1.trim().split("\\s+");
-            if (rotorDet.length < 2) {
-                throw error("Rotor is improperly formatted");
-            }
-            switch (rotorDet[1].charAt(0)) {
-            case 'M':
-                if (rotorDet[1].length() == 1) {
-                    return new MovingRotor(rotorDet[0],
-                            new Permutation(subString2, _alphabet), "");
+            throw new IllegalStateException(cause);
+        }
+        _output.writeFormatted(done._bytes, 0, done._bytes.length);
+        if (done._error != null) {
+            throw done._error;
+        }
+    }
+
+    /** A setting line and the message lines that follow it. */
+    private final class Message {
+        /** A message set up by SETTING, with PLUGBOARD the plugboard cycles
+         *  in force. */
+        Message(String setting, String plugboard) {
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Add LINE, with its whitespace removed, to my message lines. */
+        void add(CharSequence line) {
+            _lines.add(line.toString().toCharArray());
+        }
+
+        /** Return a task that converts me with the machine MACHINES
+         *  supplies to the thread that runs it. */
+        Callable<Result> task(ThreadLocal<Machine> machines) {
+            return () -> convert(machines.get());
+        }
+
+        /** Convert me with ENIGMA, returning my output and the error that
+         *  ended it, if any. */
+        private Result convert(Machine enigma) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GroupWriter output = new GroupWriter(Channels.newChannel(bytes),
+                    Integer.getInteger("enigma.groupSize", GROUP_SIZE));
+            EnigmaException failure = null;
+            try {
+                if (_setting.indexOf('(') == -1) {
+                    enigma.setPlugboard(new Permutation(_plugboard,
+                            _alphabet));
                 }
-                String notch = "";
-                for (char c : rotorDet[1].substring(1).toCharArray()) {
-                    notch += _alphabet.toChar((_alphabet.toInt(c) + dif)
-                            % _alphabet.size());
+                setUp(enigma, _setting);
+                long start = Metrics.ENABLED ? System.nanoTime() : 0;
+                Events.Message event = new Events.Message();
+                event.begin();
+                for (char[] line : _lines) {
+                    for (int i = 0; i < line.length; i += CHUNK_SIZE) {
+                        int len = Math.min(CHUNK_SIZE, line.length - i);
+                        enigma.convert(line, i, line, i, len);
+                        output.write(line, i, len);
+                    }
+                    output.endLine();
+                    event.length += line.length;
+                    event.lines += 1;
                 }
-                return new MovingRotor(rotorDet[0], new Permutation(
-                        subString2, _alphabet), notch);
-            case 'N':
-                return new FixedRotor(rotorDet[0],
-                        new Permutation(subString2, _alphabet));
-            case 'R':
-                if (_config.hasNext("\\(\\p{Print}\\p{Print}\\)")) {
-                    subString2 += " " + _config.nextLine().trim();
+                event.commit();
+                if (Metrics.ENABLED) {
+                    Metrics.MESSAGES.increment();
+                    Metrics.MESSAGE_LATENCY.recordSince(start);
                 }
-                return new Reflector(rotorDet[0],
-                        new Permutation(subString2, _alphabet));
-            default:
-                throw error("NOT A VALID ROTOR TYPE");
+            } catch (EnigmaException excp) {
+                output.dropLine();
+                failure = excp;
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            output.flush();
+            return new Result(bytes.toByteArray(), failure);
+        }
+
+        /** My setting line. */
+        private final String _setting;
+        /** Plugboard cycles in force for me. */
+        private final String _plugboard;
+        /** My message lines, without whitespace. */
+        private final List<char[]> _lines = new ArrayList<>();
+    }
+
+    /** The output of one message. */
+    private static final class Result {
+        /** Output BYTES, ended early by ERROR if it is not null. */
+        Result(byte[] bytes, EnigmaException error) {
+            _bytes = bytes;
+            _error = error;
         }
+
+        /** Formatted output. */
+        private final byte[] _bytes;
+        /** Error that stopped the conversion, or null. */
+        private final EnigmaException _error;
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    private Machine readConfig() {
+        Machine machine = new ConfigParser(_configName, _config).parse();
+        _alphabet = machine.alphabet();
+        _codePoints = _alphabet instanceof CodePointTable;
+        return machine;
     }
 
     /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
+     *  which must have the format specified in the assignment: a '*',
+     *  the names of the rotors, their settings, and optionally the
+     *  plugboard cycles.  Without plugboard cycles, M keeps its current
+     *  plugboard. */
     private void setUp(Machine M, String settings) {
+        long began = Metrics.ENABLED ? System.nanoTime() : 0;
+        Events.Setting event = new Events.Setting();
+        event.begin();
+        int end = settings.indexOf('(');
+        if (end == -1) {
+            end = settings.length();
+        } else {
+            M.setPlugboard(new Permutation(settings.substring(end),
+                    _alphabet));
+        }
+        List<String> words = new ArrayList<>();
+        int i = settings.indexOf('*') + 1;
+        while (i < end) {
+            while (i < end && Character.isWhitespace(settings.charAt(i))) {
+                i += 1;
+            }
+            int start = i;
+            while (i < end && !Character.isWhitespace(settings.charAt(i))) {
+                i += 1;
+            }
+            if (i > start) {
+                words.add(settings.substring(start, i));
+            }
+        }
+        if (words.isEmpty()) {
+            throw error("Setting line names no rotors");
+        }
+        String[] rotors = words.subList(0, words.size() - 1)
+                .toArray(new String[words.size() - 1]);
+        M.insertRotors(rotors);
+        M.setRotors(words.get(words.size() - 1));
+        if (event.shouldCommit()) {
+            event.setting = settings;
+            event.plugboard = end < settings.length();
+            event.commit();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.SETTING_LATENCY.recordSince(began);
+        }
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String line = "";
-        String part = "";
-        char[] chars = msg.toCharArray();
-        for (int i = 0; i < msg.length();) {
-            for (int j = 0; j < 5 && i < msg.length(); j++, i++) {
-                part += chars[i];
-            }
-            line += part + " ";
-            part = "";
+    /** Note the start of a message for the metrics and flight
+     *  recordings. */
+    private void startMessage() {
+        _message = new Events.Message();
+        _message.begin();
+        if (Metrics.ENABLED) {
+            _messageStart = System.nanoTime();
+        }
+    }
+
+    /** Record the message started by startMessage, if there is one, in
+     *  the metrics and flight recordings. */
+    private void endMessage() {
+        if (_message != null) {
+            _message.commit();
+            _message = null;
+        }
+        if (Metrics.ENABLED && _messageStart != NO_MESSAGE) {
+            Metrics.MESSAGES.increment();
+            Metrics.MESSAGE_LATENCY.recordSince(_messageStart);
+            _messageStart = NO_MESSAGE;
         }
-        _output.print(line + "\n");
     }
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** True iff _alphabet has symbols outside the Basic Multilingual
+     *  Plane, so that messages must be handled as code points. */
+    private boolean _codePoints;
+
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
+
+    /** Machine configuration, or null if there is a snapshot. */
+    private String _config;
+
+    /** Name of the configuration file. */
+    private String _configName;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** Flight recorder event for the current message, or null. */
+    private Events.Message _message;
+
+    /** Value of System.nanoTime at the start of the current message, for
+     *  the metrics, or NO_MESSAGE. */
+    private long _messageStart = NO_MESSAGE;
+
+    /** Machine snapshot to load, or null. */
+    private Path _snapshot;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
-    /** Difference in length. */
-    private int dif = 0;
+    private GroupWriter _output;
+
+    /** Number of message characters converted at a time. */
+    private static final int CHUNK_SIZE = 8192;
+    /** Default number of candidates written by a search. */
+    private static final int CANDIDATES = 10;
+    /** Default limit on the stops written by a bombe. */
+    private static final int STOPS = 100;
+    /** Value of _messageStart when there is no current message. */
+    private static final long NO_MESSAGE = Long.MIN_VALUE;
+    /** Number of messages queued per worker in concurrent processing. */
+    private static final int BACKLOG = 64;
+    /** Default number of characters in each printed group. */
+    private static final int GROUP_SIZE = 5;
 }
@@ -0,0 +1,151 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The menu of a crib: the graph whose vertices are symbols and which
+ *  has an edge between the symbols of the crib and of the ciphertext at
+ *  each position of the crib, labeled with that position.  Since the
+ *  machine without its plugboard is an involution at every position, a
+ *  plugboard P and rotor permutation S(i) at crib position i fit the
+ *  crib only if P(b) = S(i)(P(a)) for every edge a-b labeled i.  Loops in
+ *  the menu are what make such a guess testable: along a loop, the
+ *  constraints must bring a guess back to itself.
+ *  @author Kevin Li
+ */
+final class Menu {
+
+    /** The menu of CRIB placed against CIPHERTEXT starting at position
+     *  OFFSET of the ciphertext, both given as indices into ALPHABET.
+     *  Since the machine never converts a symbol to itself, the crib may
+     *  not put any symbol opposite itself. */
+    Menu(Alphabet alphabet, int[] crib, int[] ciphertext, int offset) {
+        if (crib.length == 0) {
+            throw error("empty crib");
+        }
+        if (offset < 0 || offset + crib.length > ciphertext.length) {
+            throw error("crib does not fit in the ciphertext");
+        }
+        int n = alphabet.size();
+        _size = n;
+        _offset = offset;
+        _length = crib.length;
+        int[] degree = new int[n];
+        for (int i = 0; i < crib.length; i += 1) {
+            int a = crib[i], b = ciphertext[offset + i];
+            if (a == b) {
+                throw error("crib puts %s opposite itself at position %d",
+                            new String(Character.toChars(
+                                alphabet.toCodePoint(a))), offset + i);
+            }
+            degree[a] += 1;
+            degree[b] += 1;
+        }
+        _neighbors = new int[n][];
+        _steps = new int[n][];
+        int best = 0;
+        for (int c = 0; c < n; c += 1) {
+            _neighbors[c] = new int[degree[c]];
+            _steps[c] = new int[degree[c]];
+            if (degree[c] > degree[best]) {
+                best = c;
+            }
+        }
+        _center = best;
+        Arrays.fill(degree, 0);
+        for (int i = 0; i < crib.length; i += 1) {
+            int a = crib[i], b = ciphertext[offset + i];
+            _neighbors[a][degree[a]] = b;
+            _steps[a][degree[a]++] = i;
+            _neighbors[b][degree[b]] = a;
+            _steps[b][degree[b]++] = i;
+        }
+    }
+
+    /** Return the number of symbols of the alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the position in the ciphertext of the start of the crib. */
+    int offset() {
+        return _offset;
+    }
+
+    /** Return the number of positions of the crib (and of edges). */
+    int length() {
+        return _length;
+    }
+
+    /** Return the symbols joined to C by an edge.  The result is shared
+     *  and must not be modified. */
+    int[] neighbors(int c) {
+        return _neighbors[c];
+    }
+
+    /** Return the crib positions labeling the edges from C, in the order
+     *  of neighbors(C).  The result is shared and must not be
+     *  modified. */
+    int[] steps(int c) {
+        return _steps[c];
+    }
+
+    /** Return the symbol with the most edges: the one whose partner on
+     *  the plugboard is best guessed, since a guess there reaches the
+     *  most constraints at once. */
+    int center() {
+        return _center;
+    }
+
+    /** Return the number of independent loops in the menu: the number of
+     *  edges less the number of symbols they touch, plus the number of
+     *  connected pieces.  With fewer than about three, most settings
+     *  survive the test. */
+    int loops() {
+        int[] parent = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            parent[c] = c;
+        }
+        int symbols = 0, pieces = 0;
+        for (int c = 0; c < _size; c += 1) {
+            if (_neighbors[c].length > 0) {
+                symbols += 1;
+                pieces += 1;
+            }
+        }
+        for (int c = 0; c < _size; c += 1) {
+            for (int d : _neighbors[c]) {
+                int rc = root(parent, c), rd = root(parent, d);
+                if (rc != rd) {
+                    parent[rc] = rd;
+                    pieces -= 1;
+                }
+            }
+        }
+        return _length - symbols + pieces;
+    }
+
+    /** Return the representative of C in the union-find forest
+     *  PARENT. */
+    private static int root(int[] parent, int c) {
+        while (parent[c] != c) {
+            parent[c] = parent[parent[c]];
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /** Number of symbols of the alphabet. */
+    private final int _size;
+    /** Position in the ciphertext of the start of the crib. */
+    private final int _offset;
+    /** Length of the crib. */
+    private final int _length;
+    /** _neighbors[C] lists the ends of the edges from C. */
+    private final int[][] _neighbors;
+    /** _steps[C][K] labels the edge from C to _neighbors[C][K]. */
+    private final int[][] _steps;
+    /** The symbol with the most edges. */
+    private final int _center;
+}
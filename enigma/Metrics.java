@@ -0,0 +1,214 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static enigma.EnigmaException.*;
+
+/** Counters and latency histograms for the hot paths of the package,
+ *  published through JMX (see MetricsMXBean) under the name NAME.
+ *
+ *  Metrics are off unless the property enigma.metrics is true.  Every
+ *  update is guarded by the constant ENABLED, so when they are off the
+ *  JIT compiler removes the updates, and the timing around them,
+ *  entirely.  The counters are LongAdders, so threads converting at the
+ *  same time do not contend for them.
+ *  @author Kevin Li
+ */
+final class Metrics implements MetricsMXBean {
+
+    /** True iff metrics are being collected. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** Characters converted. */
+    static final LongAdder CHARACTERS = new LongAdder();
+    /** Messages (setting lines and the lines that follow them)
+     *  converted. */
+    static final LongAdder MESSAGES = new LongAdder();
+    /** Keypresses that moved a rotor other than the fast one. */
+    static final LongAdder CARRIES = new LongAdder();
+    /** Calls to Machine.insertRotors. */
+    static final LongAdder INSERTIONS = new LongAdder();
+    /** Calls to Machine.setRotors. */
+    static final LongAdder SETTINGS = new LongAdder();
+    /** Permutations constructed. */
+    static final LongAdder PERMUTATIONS = new LongAdder();
+    /** Time taken to convert each message. */
+    static final Histogram MESSAGE_LATENCY = new Histogram();
+    /** Time taken to apply each setting line. */
+    static final Histogram SETTING_LATENCY = new Histogram();
+
+    /** Name under which metrics are registered. */
+    static final String NAME = "enigma:type=Metrics";
+
+    /** Not instantiable except by register. */
+    private Metrics() {
+        _start = System.nanoTime();
+    }
+
+    /** Publish the metrics in the platform MBean server, if they are
+     *  enabled and not already published. */
+    static synchronized void register() {
+        if (!ENABLED || _registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new Metrics(), new ObjectName(NAME));
+            _registered = true;
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s", excp.getMessage());
+        }
+    }
+
+    @Override
+    public long getCharacters() {
+        return CHARACTERS.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return MESSAGES.sum();
+    }
+
+    @Override
+    public long getCarries() {
+        return CARRIES.sum();
+    }
+
+    @Override
+    public long getRotorInsertions() {
+        return INSERTIONS.sum();
+    }
+
+    @Override
+    public long getSettingChanges() {
+        return SETTINGS.sum();
+    }
+
+    @Override
+    public long getPermutations() {
+        return PERMUTATIONS.sum();
+    }
+
+    @Override
+    public double getCharactersPerSecond() {
+        return perSecond(CHARACTERS.sum());
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return perSecond(MESSAGES.sum());
+    }
+
+    @Override
+    public LatencySummary getMessageLatency() {
+        return MESSAGE_LATENCY.summary();
+    }
+
+    @Override
+    public LatencySummary getSettingLatency() {
+        return SETTING_LATENCY.summary();
+    }
+
+    @Override
+    public void reset() {
+        CHARACTERS.reset();
+        MESSAGES.reset();
+        CARRIES.reset();
+        INSERTIONS.reset();
+        SETTINGS.reset();
+        PERMUTATIONS.reset();
+        MESSAGE_LATENCY.reset();
+        SETTING_LATENCY.reset();
+        _start = System.nanoTime();
+    }
+
+    /** Return COUNT divided by the seconds since I was created or
+     *  reset. */
+    private double perSecond(long count) {
+        double seconds = (System.nanoTime() - _start) / 1e9;
+        return seconds <= 0 ? 0 : count / seconds;
+    }
+
+    /** A histogram of durations in nanoseconds, in buckets whose bounds
+     *  are powers of two, so that recording is a leading-zero count and
+     *  an add. */
+    static final class Histogram {
+        /** An empty histogram. */
+        Histogram() {
+            for (int i = 0; i < _buckets.length; i += 1) {
+                _buckets[i] = new LongAdder();
+            }
+        }
+
+        /** Record a duration of NANOS nanoseconds. */
+        void record(long nanos) {
+            int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+            _buckets[bucket].increment();
+            _total.add(nanos);
+            _max.accumulate(nanos);
+        }
+
+        /** Record the time since START, a value of System.nanoTime. */
+        void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        /** Return a summary of the durations recorded so far. */
+        LatencySummary summary() {
+            long[] counts = new long[_buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i += 1) {
+                counts[i] = _buckets[i].sum();
+                count += counts[i];
+            }
+            return new LatencySummary(count, _total.sum(), _max.get(),
+                                      quantile(counts, count, 0.5),
+                                      quantile(counts, count, 0.9),
+                                      quantile(counts, count, 0.99), counts);
+        }
+
+        /** Forget all durations. */
+        void reset() {
+            for (LongAdder bucket : _buckets) {
+                bucket.reset();
+            }
+            _total.reset();
+            _max.reset();
+        }
+
+        /** Return the upper bound of the bucket holding quantile Q of the
+         *  COUNT durations whose bucket counts are COUNTS. */
+        private static long quantile(long[] counts, long count, double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i += 1) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE
+                        : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        /** _buckets[K] counts durations of K significant bits (so bucket 0
+         *  holds 0, and bucket K > 0 holds 2**(K-1) .. 2**K - 1). */
+        private final LongAdder[] _buckets = new LongAdder[65];
+        /** Sum of all durations. */
+        private final LongAdder _total = new LongAdder();
+        /** Longest duration. */
+        private final LongAccumulator _max =
+            new LongAccumulator(Math::max, 0);
+    }
+
+    /** True iff register has published the metrics. */
+    private static boolean _registered;
+
+    /** Value of System.nanoTime when I was created or reset. */
+    private volatile long _start;
+}
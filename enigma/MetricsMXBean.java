@@ -0,0 +1,43 @@
+package enigma;
+
+/** The management interface of the package's metrics (see Metrics).
+ *  @author Kevin Li
+ */
+public interface MetricsMXBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of messages converted. */
+    long getMessages();
+
+    /** Return the number of keypresses that moved a rotor other than the
+     *  fast one. */
+    long getCarries();
+
+    /** Return the number of times rotors were inserted into a machine. */
+    long getRotorInsertions();
+
+    /** Return the number of times a machine's rotors were set. */
+    long getSettingChanges();
+
+    /** Return the number of permutations constructed. */
+    long getPermutations();
+
+    /** Return the average number of characters converted per second
+     *  since the metrics were published or reset. */
+    double getCharactersPerSecond();
+
+    /** Return the average number of messages converted per second since
+     *  the metrics were published or reset. */
+    double getMessagesPerSecond();
+
+    /** Return a summary of the time taken to convert each message. */
+    LatencySummary getMessageLatency();
+
+    /** Return a summary of the time taken to apply each setting line. */
+    LatencySummary getSettingLatency();
+
+    /** Set all counts to 0 and forget all latencies. */
+    void reset();
+}
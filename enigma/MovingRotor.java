@@ -18,17 +18,37 @@ class MovingRotor extends Rotor {
         super(name, perm);
         this.notch = notches.toUpperCase();
     }
+
+    /** A rotor as for MovingRotor(NAME, PERM, NOTCHES) that converts
+     *  through TABLE. */
+    MovingRotor(String name, Permutation perm, String notches,
+                RotorTable table) {
+        super(name, perm, table);
+        this.notch = notches.toUpperCase();
+    }
     @Override
     boolean rotates() {
         return true;
     }
     @Override
     boolean atNotch() {
-        setOnNotch(notch.indexOf(alphabet().toChar(
-                permutation().wrap(setting()))) != -1 && rotates());
+        setOnNotch(notchAt(setting()) && rotates());
         return isOnNotch();
     }
     @Override
+    boolean notchAt(int posn) {
+        return notch.indexOf(alphabet().toCodePoint(
+                permutation().wrap(posn))) != -1;
+    }
+    /** Return my notches. */
+    String notches() {
+        return notch;
+    }
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), permutation(), notch, table());
+    }
+    @Override
     void advance() {
         setAdvanced(rotates());
         set(setting() + 1);
@@ -5,6 +5,10 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import static enigma.TestUtils.*;
@@ -116,5 +120,125 @@ public class MovingRotorTest {
         rotor.set(25);
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
+    @Test
+    public void sharedTables() {
+        setRotor("I", NAVALA, "Q");
+        Rotor other = new FixedRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER));
+        assertSame(rotor.table(), other.table());
+        other.set(3);
+        checkRotor("Rotor I (A)", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
+    @Test
+    public void tableStrategies() {
+        Permutation perm = new Permutation(NAVALA.get("III"), UPPER);
+        RotorTable eager =
+            new RotorTable(perm, RotorTable.Strategy.EAGER, 26);
+        RotorTable lazy = new RotorTable(perm, RotorTable.Strategy.LAZY, 3);
+        RotorTable arith =
+            new RotorTable(perm, RotorTable.Strategy.ARITHMETIC, 0);
+        for (int posn = 0; posn < 26; posn += 1) {
+            int[] fwd = eager.forward(posn), bwd = eager.backward(posn);
+            int q = (posn * 7) % 26;
+            assertArrayEquals(eager.forward(q), lazy.forward(q));
+            assertArrayEquals(eager.backward(q), lazy.backward(q));
+            assertArrayEquals(fwd, arith.forward(posn));
+            for (int p = 0; p < 26; p += 1) {
+                assertEquals(fwd[p], arith.convertForward(posn, p));
+                assertEquals(bwd[p], arith.convertBackward(posn, p));
+            }
+        }
+        assertEquals(RotorTable.Strategy.EAGER,
+                     RotorTable.choose(26, 1 << 20));
+        assertEquals(RotorTable.Strategy.LAZY,
+                     RotorTable.choose(10000, 1 << 26));
+        assertEquals(RotorTable.Strategy.ARITHMETIC,
+                     RotorTable.choose(1 << 20, 1 << 26));
+    }
+
+    @Test
+    public void lazyTableSteps() {
+        Permutation perm = new Permutation(NAVALA.get("III"), UPPER);
+        RotorTable lazy = new RotorTable(perm, RotorTable.Strategy.LAZY, 3);
+        RotorTable eager =
+            new RotorTable(perm, RotorTable.Strategy.EAGER, 26);
+        Rotor stepping = new MovingRotor("III", perm, "V", lazy);
+        for (int i = 0; i < 2 * 26; i += 1) {
+            stepping.advance();
+            int posn = stepping.setting();
+            for (int p = 0; p < 26; p += 1) {
+                assertEquals(eager.forward(posn)[p],
+                             stepping.convertForward(p));
+                assertEquals(eager.backward(posn)[p],
+                             stepping.convertBackward(p));
+            }
+        }
+        assertEquals(0, lazy.tabulations());
+        for (int i = 0; i < 100; i += 1) {
+            lazy.forward(i % 2);
+            lazy.backward(i % 2);
+        }
+        assertEquals(2, lazy.tabulations());
+    }
+
+    @Test
+    public void mappedTables() throws IOException {
+        Permutation perm = new Permutation(NAVALA.get("IV"), UPPER);
+        Path file = Files.createTempFile("tables", ".bin");
+        try {
+            TableStore.write(file, Arrays.asList(perm, perm));
+            TableStore store = TableStore.map(file);
+            int base = store.find(perm.forwardTable());
+            assertTrue(base > 0);
+            RotorTable mapped = new RotorTable(perm, store.ints(), base);
+            RotorTable eager =
+                new RotorTable(perm, RotorTable.Strategy.EAGER, 26);
+            for (int posn = 0; posn < 26; posn += 1) {
+                assertArrayEquals(eager.forward(posn), mapped.forward(posn));
+                assertArrayEquals(eager.backward(posn),
+                                  mapped.backward(posn));
+                for (int p = 0; p < 26; p += 1) {
+                    assertEquals(eager.forward(posn)[p],
+                                 mapped.convertForward(posn, p));
+                    assertEquals(eager.backward(posn)[p],
+                                 mapped.convertBackward(posn, p));
+                }
+            }
+            assertEquals(-1, store.find(
+                new Permutation(NAVALA.get("V"), UPPER).forwardTable()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void storeLimit() {
+        Permutation small = new Permutation(NAVALA.get("IV"), UPPER);
+        Alphabet big = new CharacterRange('\u4E00', (char) (0x4E00 + 99));
+        Permutation large =
+            new Permutation("(\u4E00\u4E01\u4E02) (\u4E10\u4E20)", big);
+        long limit = (3 + 1 + 26 + 2 * 26 * 26 + 1 + 100) * Integer.BYTES;
+        TableStore store = TableStore.of(TableStore.encode(
+            Arrays.asList(small, large, small), limit).asIntBuffer());
+        assertTrue(store.find(small.forwardTable()) > 0);
+        assertEquals(-1, store.find(large.forwardTable()));
+        store = TableStore.of(TableStore.encode(
+            Arrays.asList(large, small), limit).asIntBuffer());
+        assertTrue(store.find(small.forwardTable()) > 0);
+        assertEquals(-1, store.find(large.forwardTable()));
+    }
+
+    @Test
+    public void largeAlphabet() {
+        Alphabet big = new CharacterRange('\u4E00', (char) (0x4E00 + 9999));
+        Rotor wide = new MovingRotor("W", new Permutation(
+                "(\u4E00\u4E01\u4E02) (\u4E10\u6000)", big), "");
+        assertEquals(RotorTable.Strategy.LAZY, wide.table().strategy());
+        wide.set(9998);
+        assertEquals(3, wide.convertForward(2));
+        assertEquals(2, wide.convertBackward(3));
+        assertEquals(5, wide.convertForward(5));
+    }
 
 }
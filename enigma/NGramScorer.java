@@ -0,0 +1,191 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Scores texts by their n-gram fitness: the sum, over every run of N
+ *  consecutive symbols in the text, of the base-10 logarithm of that
+ *  n-gram's frequency in the plaintext language.  N-grams that were
+ *  never seen get the frequency of a hundredth of an occurrence.  Texts
+ *  are compared only with others of the same length, so the sum need not
+ *  be normalized.
+ *  @author Kevin Li
+ */
+class NGramScorer extends Scorer {
+
+    /** A scorer for texts over ALPHABET whose n-gram counts are TEXT, the
+     *  contents of the file named NAME (used in error messages).  Each
+     *  non-blank line of TEXT is an n-gram, written with symbols of
+     *  ALPHABET, and the number of times it occurs, separated by
+     *  whitespace.  All the n-grams must have the same length. */
+    NGramScorer(Alphabet alphabet, String name, String text) {
+        int size = alphabet.size();
+        String[] lines = text.split("\\R");
+        int[][] grams = new int[lines.length][];
+        long[] counts = new long[lines.length];
+        long total = 0;
+        int n = 0;
+        for (int k = 0; k < lines.length; k += 1) {
+            String line = lines[k].trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            if (words.length != 2) {
+                throw error("%s:%d: expected an n-gram and a count", name,
+                            k + 1);
+            }
+            int[] gram = words[0].toUpperCase().codePoints().toArray();
+            if (n == 0) {
+                n = gram.length;
+            } else if (gram.length != n) {
+                throw error("%s:%d: n-grams have different lengths", name,
+                            k + 1);
+            }
+            for (int i = 0; i < n; i += 1) {
+                gram[i] = alphabet.indexOfCodePoint(gram[i]);
+                if (gram[i] < 0) {
+                    throw error("%s:%d: n-gram is not in the alphabet",
+                                name, k + 1);
+                }
+            }
+            try {
+                counts[k] = Long.parseLong(words[1]);
+            } catch (NumberFormatException excp) {
+                counts[k] = -1;
+            }
+            if (counts[k] <= 0) {
+                throw error("%s:%d: count must be a positive integer", name,
+                            k + 1);
+            }
+            grams[k] = gram;
+            total += counts[k];
+        }
+        if (n == 0) {
+            throw error("%s: no n-grams", name);
+        }
+        if (Math.pow(size, n) > MAX_TABLE) {
+            throw error("%s: %d-grams are too long for the alphabet", name,
+                        n);
+        }
+        _size = size;
+        _n = n;
+        _high = (int) Math.pow(size, n - 1);
+        _logs = new double[_high * size];
+        Arrays.fill(_logs, Math.log10(FLOOR / total));
+        for (int k = 0; k < lines.length; k += 1) {
+            if (grams[k] != null) {
+                _logs[index(grams[k])] = Math.log10((double) counts[k]
+                                                    / total);
+            }
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        for (double log : _logs) {
+            best = Math.max(best, log);
+        }
+        _best = best;
+    }
+
+    /** Return the number of symbols in my n-grams. */
+    int n() {
+        return _n;
+    }
+
+    /** Return the logarithm of the frequency of each n-gram, indexed by
+     *  its symbols as a number in base alphabet size, first symbol most
+     *  significant.  The result is shared and must not be modified. */
+    double[] logs() {
+        return _logs;
+    }
+
+    @Override
+    Tally tally(int length) {
+        return new NGramTally(length);
+    }
+
+    /** Return the index in _logs of GRAM, an array of _n alphabet
+     *  indices. */
+    private int index(int[] gram) {
+        int result = 0;
+        for (int s : gram) {
+            result = result * _size + s;
+        }
+        return result;
+    }
+
+    /** The sum of the n-grams seen so far, and the last _n - 1 symbols,
+     *  which begin the next n-gram. */
+    private class NGramTally extends Tally {
+
+        /** A tally for texts of LENGTH symbols. */
+        NGramTally(int length) {
+            super(length);
+            _grams = Math.max(length - _n + 1, 0);
+        }
+
+        @Override
+        void clear() {
+            _score = 0;
+            _gram = 0;
+            _seen = 0;
+        }
+
+        @Override
+        void add(int[] symbols, int off, int len) {
+            double[] logs = _logs;
+            double score = _score;
+            int gram = _gram;
+            int seen = _seen;
+            for (int i = off; i < off + len; i += 1) {
+                gram = (gram % _high) * _size + symbols[i];
+                seen += 1;
+                if (seen >= _n) {
+                    score += logs[gram];
+                }
+            }
+            _score = score;
+            _gram = gram;
+            _seen = seen;
+        }
+
+        @Override
+        double score() {
+            return _score;
+        }
+
+        /** No n-gram still to come can score more than the commonest. */
+        @Override
+        double bound() {
+            int done = Math.max(_seen - _n + 1, 0);
+            return _score + (_grams - done) * _best;
+        }
+
+        /** Number of n-grams in a text of my length. */
+        private final int _grams;
+        /** Sum of the n-grams seen so far. */
+        private double _score;
+        /** Index of the last n-gram seen (of its last _seen symbols, if
+         *  fewer than _n have been seen). */
+        private int _gram;
+        /** Number of symbols added. */
+        private int _seen;
+    }
+
+    /** Largest number of entries in _logs. */
+    private static final int MAX_TABLE = 1 << 24;
+    /** Number of occurrences assumed for n-grams never seen. */
+    private static final double FLOOR = 0.01;
+
+    /** Size of the alphabet. */
+    private final int _size;
+    /** Number of symbols in an n-gram. */
+    private final int _n;
+    /** Number of (n-1)-grams: _size ** (_n - 1). */
+    private final int _high;
+    /** Logarithm of the frequency of each n-gram, indexed by its symbols
+     *  as a number in base _size. */
+    private final double[] _logs;
+    /** Largest element of _logs. */
+    private final double _best;
+}
@@ -0,0 +1,81 @@
+package enigma;
+
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** The conversion of a span of one message, divided among the threads of
+ *  a ForkJoinPool.  Each piece is converted by a fork of a FlatEngine
+ *  that starts at the piece's offset in the message, found by seeking
+ *  rather than by converting the text before it, so the pieces are
+ *  independent and the result is the same as a sequential conversion.
+ *  @author Kevin Li
+ */
+@SuppressWarnings("serial")
+class ParallelConversion extends RecursiveAction {
+
+    /** Convert the LEN characters IN[INOFF ..] into OUT[OUTOFF ..], where
+     *  IN[INOFF] is character number START of a message whose first
+     *  character would be converted next by BASE, and all characters are
+     *  in ALPHABET after conversion to upper case. */
+    ParallelConversion(FlatEngine base, Alphabet alphabet,
+                       char[] in, int inOff, char[] out, int outOff,
+                       long start, int len) {
+        _base = base;
+        _alphabet = alphabet;
+        _in = in;
+        _inOff = inOff;
+        _out = out;
+        _outOff = outOff;
+        _start = start;
+        _len = len;
+    }
+
+    @Override
+    protected void compute() {
+        if (_len <= PIECE_SIZE) {
+            FlatEngine engine = _base.fork(_start);
+            if (Metrics.ENABLED) {
+                Metrics.CHARACTERS.add(_len);
+            }
+            Alphabet alpha = _alphabet;
+            for (int i = 0; i < _len; i += 1) {
+                int index =
+                    alpha.indexOf(Character.toUpperCase(_in[_inOff + i]));
+                if (index < 0) {
+                    throw error("Value is not part of alphabet");
+                }
+                _out[_outOff + i] = alpha.toChar(engine.convert(index));
+            }
+        } else {
+            int half = _len / 2;
+            invokeAll(new ParallelConversion(_base, _alphabet,
+                                             _in, _inOff, _out, _outOff,
+                                             _start, half),
+                      new ParallelConversion(_base, _alphabet,
+                                             _in, _inOff + half,
+                                             _out, _outOff + half,
+                                             _start + half, _len - half));
+        }
+    }
+
+    /** Largest span converted by a single task. */
+    static final int PIECE_SIZE = 1 << 18;
+
+    /** Engine positioned at the start of the message. */
+    private final FlatEngine _base;
+    /** Alphabet of the message. */
+    private final Alphabet _alphabet;
+    /** Characters to convert. */
+    private final char[] _in;
+    /** Offset of my span in _in. */
+    private final int _inOff;
+    /** Destination of the conversion. */
+    private final char[] _out;
+    /** Offset of my span in _out. */
+    private final int _outOff;
+    /** Offset of my span in the message. */
+    private final long _start;
+    /** Length of my span. */
+    private final int _len;
+}
@@ -1,4 +1,5 @@
 package enigma;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -15,6 +16,9 @@ class Permutation {
      *  alphabet that are not included in any cycless map to themselves.
      *  Whitespace is ignored.*/
     Permutation(String cycles, Alphabet alphabet) {
+        if (Metrics.ENABLED) {
+            Metrics.PERMUTATIONS.increment();
+        }
         _alphabet = alphabet;
         this.cycless = new ArrayList<String>();
         for (String cy : cycles.split("\\(")) {
@@ -22,8 +26,8 @@ class Permutation {
                 throw error("Improper format of a cycle.");
             }
             cy = cy.replaceAll("\\)", "").trim();
-            for (char c : cy.toCharArray()) {
-                if (!alphabet.contains(c)) {
+            for (int c : cy.codePoints().toArray()) {
+                if (!alphabet.containsCodePoint(c)) {
                     throw error("Improper character in a cycle.");
                 }
             }
@@ -31,6 +35,32 @@ class Permutation {
                 this.cycless.add(cy.toUpperCase());
             }
         }
+        compile();
+    }
+
+    /** Set this Permutation to the one taking each index I of ALPHABET
+     *  to MAP[I], which must be a permutation of 0 .. ALPHABET.size()-1
+     *  (as returned by forwardTable). */
+    Permutation(int[] map, Alphabet alphabet) {
+        if (Metrics.ENABLED) {
+            Metrics.PERMUTATIONS.increment();
+        }
+        _alphabet = alphabet;
+        this.cycless = new ArrayList<String>();
+        int n = alphabet.size();
+        if (map.length != n) {
+            throw error("Permutation has the wrong size.");
+        }
+        _forward = map.clone();
+        _inverse = new int[n];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < n; i += 1) {
+            if (map[i] < 0 || map[i] >= n || _inverse[map[i]] != -1) {
+                throw error("Not a permutation.");
+            }
+            _inverse[map[i]] = i;
+        }
+        complete();
     }
 
     /** Add the cycless c0->c1->...->cm->c0 to the permutation, where CYCLE is
@@ -44,6 +74,49 @@ class Permutation {
         }
     }
 
+    /** Fill in _forward and _inverse from cycless, and record whether
+     *  I am the identity or a derangement, so that none of that work is
+     *  repeated per character. */
+    private void compile() {
+        int n = _alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            _forward[i] = _inverse[i] = -1;
+        }
+        for (String cy : cycless) {
+            int[] cps = cy.codePoints().toArray();
+            for (int k = 0; k < cps.length; k += 1) {
+                int from = _alphabet.indexOfCodePoint(cps[k]);
+                int to = _alphabet.indexOfCodePoint(cps[(k + 1) % cps.length]);
+                if (_forward[from] != -1) {
+                    throw error("Character appears in more than one cycle.");
+                }
+                _forward[from] = to;
+                _inverse[to] = from;
+            }
+        }
+        complete();
+    }
+
+    /** Make every index not yet mapped in _forward and _inverse map to
+     *  itself, and record whether I am the identity or a derangement. */
+    private void complete() {
+        int n = _forward.length;
+        _identity = true;
+        _derangement = true;
+        for (int i = 0; i < n; i += 1) {
+            if (_forward[i] == -1) {
+                _forward[i] = _inverse[i] = i;
+            }
+            if (_forward[i] == i) {
+                _derangement = false;
+            } else {
+                _identity = false;
+            }
+        }
+    }
+
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
         int r = p % size();
@@ -55,56 +128,71 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return alphabet().toInt((char) permute(_alphabet.toChar(wrap(p))));
+        if (p < 0 || p >= _forward.length) {
+            p = wrap(p);
+        }
+        return _forward[p];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return alphabet().toInt((char) invert(_alphabet.toChar(wrap(c))));
+        if (c < 0 || c >= _inverse.length) {
+            c = wrap(c);
+        }
+        return _inverse[c];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        if (checkMap()) {
-            return p;
-        } else {
-            for (String cy : cycless) {
-                if (cy.indexOf(p) != -1 && _alphabet.contains(
-                        cy.charAt((cycless.indexOf(p) + 1) % cy.length()))) {
-                    char a = cy.charAt((cy.indexOf(p) + 1) % cy.length());
-                    return a;
-                }
-            }
-            return p;
-        }
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        if (checkMap()) {
-            return c;
-        } else {
-            for (String cy : cycless) {
-                int total = (cy.indexOf(c) - 1) % cy.length();
-                if ((cy.indexOf(c) - 1) % cy.length() < 0) {
-                    total += cy.length();
-                }
-                if (cy.indexOf(c) != -1 && (cy.length() == 1
-                        || _alphabet.contains(cy.charAt(total)))) {
-                    char a = cy.charAt(total);
-                    return a;
-                }
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
+    }
+
+    /** Return my table of images, indexed by alphabet index.  The result
+     *  is shared and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return my table of preimages, indexed by alphabet index.  The
+     *  result is shared and must not be modified. */
+    int[] inverseTable() {
+        return _inverse;
+    }
+
+    /** Return my cycles of two or more symbols, in the form accepted by
+     *  the constructor: "(cccc) (cc) ...", each cycle starting with its
+     *  first symbol in alphabet order, and the cycles in that order. */
+    String cycles() {
+        StringBuilder result = new StringBuilder();
+        boolean[] done = new boolean[_forward.length];
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (done[i] || _forward[i] == i) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(' ');
             }
-            return c;
+            result.append('(');
+            for (int j = i; !done[j]; j = _forward[j]) {
+                done[j] = true;
+                result.appendCodePoint(_alphabet.toCodePoint(j));
+            }
+            result.append(')');
         }
+        return result.toString();
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -114,28 +202,24 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        int i = 0;
-        for (String cy : cycless) {
-            if (cy.length() == 1) {
-                return false;
-            }
-            i += cy.length();
-        }
-        return i == alphabet().size();
+        return _derangement;
     }
     /** Checks if cycles maps to itself or is empty.
      * @return boolean */
     boolean checkMap() {
-        for (String cy : cycless) {
-            if (cy.length() > 1) {
-                return false;
-            }
-        }
-        return true;
+        return _identity;
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
     /** List of all the cycles. Each cycless is separated in the list*/
     private List<String> cycless;
+    /** _forward[i] is the image of index i under this permutation. */
+    private int[] _forward;
+    /** _inverse[i] is the preimage of index i under this permutation. */
+    private int[] _inverse;
+    /** True iff every index maps to itself. */
+    private boolean _identity;
+    /** True iff no index maps to itself. */
+    private boolean _derangement;
 }
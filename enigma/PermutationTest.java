@@ -108,5 +108,32 @@ public class PermutationTest {
                 new CharacterRange('A', 'Z'));
         assertTrue(pe.derangement());
     }
+    @Test
+    public void testCheckMap() {
+        assertTrue(new Permutation("", UPPER).checkMap());
+        assertTrue(new Permutation("(A) (B)", UPPER).checkMap());
+        assertFalse(new Permutation("(AB)", UPPER).checkMap());
+    }
+    @Test
+    public void testPermuteWraps() {
+        Permutation p = new Permutation("(ABC)", UPPER);
+        assertEquals(1, p.permute(26));
+        assertEquals(0, p.permute(-24));
+        assertEquals(2, p.invert(26));
+        assertEquals(25, p.invert(-1));
+    }
+    @Test
+    public void testCycles() {
+        assertEquals("", new Permutation("(A) (B)", UPPER).cycles());
+        assertEquals("(ABC) (DZ)",
+                     new Permutation("(ZD) (CAB)", UPPER).cycles());
+        Permutation p = new Permutation("(PNH) (ABDFIKLZYXW) (JC)", UPPER);
+        assertEquals(p.forwardTable()[3],
+                     new Permutation(p.cycles(), UPPER).forwardTable()[3]);
+    }
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedCharacter() {
+        new Permutation("(ABC) (CD)", UPPER);
+    }
 
 }
@@ -0,0 +1,364 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a machine whose rotors are known by hill
+ *  climbing: starting from some plugboard, it tries every change of a
+ *  single pair (plugging two symbols together, or unplugging them), and
+ *  keeps the change if it raises the n-gram fitness of the decryption,
+ *  until no change does.
+ *
+ *  Stepping does not depend on the text, so the rotors' permutation at
+ *  each position of the ciphertext is tabulated once, and a decryption
+ *  under a plugboard P is P(S(P(c))) at each position, where S is that
+ *  permutation.  Since P is made of pairs, a change to it touches at
+ *  most four symbols, and so only the positions whose ciphertext, or
+ *  whose symbol leaving the rotors, is one of those symbols.  Only the
+ *  n-grams covering those positions are rescored, and the plugboard is
+ *  kept in a table of partners that is changed in place.
+ *  @author Kevin Li
+ */
+final class PlugboardClimber {
+
+    /** A climber for the plugboard of MACHINE, whose rotors must have been
+     *  inserted and set, used to decrypt CIPHERTEXT (alphabet indices)
+     *  starting at the settings given to MACHINE.setRotors, scoring
+     *  decryptions with SCORER.  MACHINE's rotors and plugboard are left
+     *  as they were. */
+    PlugboardClimber(Machine machine, int[] ciphertext, NGramScorer scorer) {
+        _alphabet = machine.alphabet();
+        int n = _alphabet.size();
+        int len = ciphertext.length;
+        _size = n;
+        _cipher = ciphertext.clone();
+        _logs = scorer.logs();
+        _gram = scorer.n();
+        _scramble = new int[len * n];
+        Permutation plugboard = machine.plugboard();
+        machine.setPlugboard(new Permutation("", _alphabet));
+        for (int c = 0; c < n; c += 1) {
+            machine.seek(0);
+            for (int i = 0; i < len; i += 1) {
+                _scramble[i * n + c] = machine.convert(c);
+            }
+        }
+        machine.seek(0);
+        machine.setPlugboard(plugboard);
+
+        int[] counts = new int[n];
+        for (int c : _cipher) {
+            if (c < 0 || c >= n) {
+                throw error("Value is not part of alphabet");
+            }
+            counts[c] += 1;
+        }
+        _byCipher = new int[n][];
+        for (int c = 0; c < n; c += 1) {
+            _byCipher[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < len; i += 1) {
+            _byCipher[_cipher[i]][counts[_cipher[i]]++] = i;
+        }
+        _plug = new int[n];
+        _mid = new int[len];
+        _plain = new int[len];
+        _byMid = new int[n][len];
+        _midCount = new int[n];
+        _slot = new int[len];
+        _marks = new int[len];
+        _affected = new int[len];
+        _grams = new int[len];
+        _saved = new int[len];
+        _gramLogs = new double[len];
+        _fresh = new double[len];
+    }
+
+    /** Return the best plugboard, with at most MAXPAIRS pairs, that hill
+     *  climbing finds, starting from START, which must be made of pairs
+     *  and have at most MAXPAIRS of them. */
+    Permutation climb(Permutation start, int maxPairs) {
+        load(start);
+        if (_pairs > maxPairs) {
+            throw error("starting plugboard has more than %d pairs",
+                        maxPairs);
+        }
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int a = 0; a < _size; a += 1) {
+                for (int b = a + 1; b < _size; b += 1) {
+                    if (tryMove(a, b, maxPairs)) {
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return new Permutation(_plug.clone(), _alphabet);
+    }
+
+    /** Return the score of the decryption under the last plugboard
+     *  returned by climb. */
+    double score() {
+        return _score;
+    }
+
+    /** Return the decryption under the last plugboard returned by climb,
+     *  as alphabet indices.  The result is shared and must not be
+     *  modified. */
+    int[] plaintext() {
+        return _plain;
+    }
+
+    /** Make START my plugboard, and decrypt and score the whole
+     *  ciphertext with it. */
+    private void load(Permutation start) {
+        int[] map = start.forwardTable();
+        _pairs = 0;
+        for (int c = 0; c < _size; c += 1) {
+            if (map[map[c]] != c) {
+                throw error("plugboard must be made of pairs");
+            }
+            if (map[c] > c) {
+                _pairs += 1;
+            }
+            _plug[c] = map[c];
+            _midCount[c] = 0;
+        }
+        for (int i = 0; i < _cipher.length; i += 1) {
+            int mid = _scramble[i * _size + _plug[_cipher[i]]];
+            _mid[i] = mid;
+            _plain[i] = _plug[mid];
+            _slot[i] = _midCount[mid];
+            _byMid[mid][_midCount[mid]++] = i;
+        }
+        _score = 0;
+        for (int g = 0; g + _gram <= _cipher.length; g += 1) {
+            _gramLogs[g] = _logs[gramAt(g)];
+            _score += _gramLogs[g];
+        }
+    }
+
+    /** Try the change to my plugboard that pairs A with B (A < B), or
+     *  unpairs them if they are paired, freeing their old partners.
+     *  Keep the change, and return true, iff it leaves at most MAXPAIRS
+     *  pairs and raises the score. */
+    private boolean tryMove(int a, int b, int maxPairs) {
+        int[] plug = _plug;
+        int pa = plug[a], pb = plug[b];
+        int pairs;
+        int changes;
+        if (pa == b) {
+            pairs = _pairs - 1;
+            _changed[0] = a;
+            _changed[1] = b;
+            changes = 2;
+        } else {
+            pairs = _pairs + 1 - (pa != a ? 1 : 0) - (pb != b ? 1 : 0);
+            if (pairs > maxPairs) {
+                return false;
+            }
+            _changed[0] = a;
+            _changed[1] = b;
+            changes = 2;
+            if (pa != a) {
+                _changed[changes++] = pa;
+            }
+            if (pb != b) {
+                _changed[changes++] = pb;
+            }
+        }
+        int affected = collect(changes);
+        int grams = gramsOf(affected);
+        double before = 0;
+        for (int k = 0; k < grams; k += 1) {
+            before += _gramLogs[_grams[k]];
+        }
+        for (int k = 0; k < changes; k += 1) {
+            _previous[k] = plug[_changed[k]];
+        }
+        if (pa == b) {
+            plug[a] = a;
+            plug[b] = b;
+        } else {
+            plug[pa] = pa;
+            plug[pb] = pb;
+            plug[a] = b;
+            plug[b] = a;
+        }
+        int n = _size;
+        int[] plain = _plain;
+        for (int k = 0; k < affected; k += 1) {
+            int i = _affected[k];
+            _saved[k] = plain[i];
+            plain[i] = plug[_scramble[i * n + plug[_cipher[i]]]];
+        }
+        double after = 0;
+        for (int k = 0; k < grams; k += 1) {
+            double log = _logs[gramAt(_grams[k])];
+            _fresh[k] = log;
+            after += log;
+        }
+        if (after > before) {
+            _score += after - before;
+            _pairs = pairs;
+            for (int k = 0; k < grams; k += 1) {
+                _gramLogs[_grams[k]] = _fresh[k];
+            }
+            for (int k = 0; k < affected; k += 1) {
+                int i = _affected[k];
+                moveMid(i, _scramble[i * n + plug[_cipher[i]]]);
+            }
+            return true;
+        }
+        for (int k = 0; k < affected; k += 1) {
+            plain[_affected[k]] = _saved[k];
+        }
+        for (int k = changes - 1; k >= 0; k -= 1) {
+            plug[_changed[k]] = _previous[k];
+        }
+        return false;
+    }
+
+    /** Put into _affected the positions whose decryption may change when
+     *  the partners of the CHANGES symbols in _changed change: those
+     *  whose ciphertext, or whose symbol leaving the rotors, is one of
+     *  them.  Return the number of positions.  The positions with
+     *  different ciphertexts are distinct, so only those found by their
+     *  symbol leaving the rotors can be duplicates. */
+    private int collect(int changes) {
+        int stamp = nextStamp();
+        int count = 0;
+        for (int k = 0; k < changes; k += 1) {
+            int c = _changed[k];
+            for (int i : _byCipher[c]) {
+                _marks[i] = stamp;
+                _affected[count++] = i;
+            }
+        }
+        for (int k = 0; k < changes; k += 1) {
+            int c = _changed[k];
+            int[] bucket = _byMid[c];
+            for (int j = _midCount[c] - 1; j >= 0; j -= 1) {
+                int i = bucket[j];
+                if (_marks[i] != stamp) {
+                    _marks[i] = stamp;
+                    _affected[count++] = i;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Put into _grams the starting positions of the n-grams that cover
+     *  any of the first AFFECTED positions in _affected, and return the
+     *  number of them. */
+    private int gramsOf(int affected) {
+        int stamp = nextStamp();
+        int last = _cipher.length - _gram;
+        int count = 0;
+        for (int k = 0; k < affected; k += 1) {
+            int i = _affected[k];
+            for (int g = Math.max(i - _gram + 1, 0); g <= i && g <= last;
+                 g += 1) {
+                if (_marks[g] != stamp) {
+                    _marks[g] = stamp;
+                    _grams[count++] = g;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Return the index in _logs of the n-gram of _plain starting at
+     *  position G. */
+    private int gramAt(int g) {
+        int index = 0;
+        for (int i = g; i < g + _gram; i += 1) {
+            index = index * _size + _plain[i];
+        }
+        return index;
+    }
+
+    /** Record that MID is now the symbol leaving the rotors at position
+     *  I. */
+    private void moveMid(int i, int mid) {
+        int old = _mid[i];
+        if (old == mid) {
+            return;
+        }
+        int[] bucket = _byMid[old];
+        int last = bucket[--_midCount[old]];
+        bucket[_slot[i]] = last;
+        _slot[last] = _slot[i];
+        _slot[i] = _midCount[mid];
+        _byMid[mid][_midCount[mid]++] = i;
+        _mid[i] = mid;
+    }
+
+    /** Return a value that no entry of _marks has. */
+    private int nextStamp() {
+        _stamp += 1;
+        if (_stamp == 0) {
+            Arrays.fill(_marks, 0);
+            _stamp = 1;
+        }
+        return _stamp;
+    }
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+    /** Size of _alphabet. */
+    private final int _size;
+    /** The ciphertext. */
+    private final int[] _cipher;
+    /** _scramble[I * _size + C] is the conversion of C by the rotors
+     *  alone at position I. */
+    private final int[] _scramble;
+    /** Logarithms of n-gram frequencies (see NGramScorer.logs). */
+    private final double[] _logs;
+    /** Number of symbols in an n-gram. */
+    private final int _gram;
+    /** _byCipher[C] lists the positions whose ciphertext is C. */
+    private final int[][] _byCipher;
+
+    /** _plug[C] is the partner of C on the plugboard, or C. */
+    private final int[] _plug;
+    /** Number of pairs in _plug. */
+    private int _pairs;
+    /** _mid[I] is the symbol leaving the rotors at position I. */
+    private final int[] _mid;
+    /** The decryption under _plug. */
+    private final int[] _plain;
+    /** _byMid[C][0 .. _midCount[C] - 1] are the positions I with
+     *  _mid[I] == C, in no particular order. */
+    private final int[][] _byMid;
+    /** Lengths of the lists in _byMid. */
+    private final int[] _midCount;
+    /** _slot[I] is the index of I in its list in _byMid. */
+    private final int[] _slot;
+    /** Score of _plain. */
+    private double _score;
+    /** _gramLogs[G] is the score of the n-gram of _plain starting at
+     *  G. */
+    private final double[] _gramLogs;
+
+    /** Symbols whose partners a move changes. */
+    private final int[] _changed = new int[4];
+    /** Partners of _changed before the move. */
+    private final int[] _previous = new int[4];
+    /** Marks of positions already collected, set to _stamp. */
+    private final int[] _marks;
+    /** Current value for _marks. */
+    private int _stamp;
+    /** Positions affected by a move. */
+    private final int[] _affected;
+    /** Starting positions of n-grams affected by a move. */
+    private final int[] _grams;
+    /** Decryptions of _affected before a move. */
+    private final int[] _saved;
+    /** Scores of the n-grams in _grams after a move. */
+    private final double[] _fresh;
+}
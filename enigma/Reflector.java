@@ -12,6 +12,12 @@ class Reflector extends FixedRotor {
     Reflector(String name, Permutation perm) {
         super(name, perm);
     }
+
+    /** A reflector as for Reflector(NAME, PERM) that converts through
+     *  TABLE. */
+    Reflector(String name, Permutation perm, RotorTable table) {
+        super(name, perm, table);
+    }
     @Override
     void set(int posn) {
         if (posn != 0) {
@@ -19,6 +25,10 @@ class Reflector extends FixedRotor {
         }
     }
     @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation(), table());
+    }
+    @Override
     boolean reflecting() {
         return true;
     }
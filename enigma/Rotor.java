@@ -10,6 +10,16 @@ class Rotor {
     private final String _name;
     /** The permutation implemented by this rotor in its 0 position. */
     private Permutation _permutation;
+    /** Conversions of my wiring at every position. */
+    private RotorTable _table;
+    /** Forward conversions at my current position, or null unless my
+     *  table is complete.  A rotor may visit every position in turn, so
+     *  it uses a LAZY table's conversions one at a time rather than
+     *  rebuilding its rows as it steps. */
+    private int[] _forwardRow;
+    /** Backward conversions at my current position, or null as for
+     *  _forwardRow. */
+    private int[] _backwardRow;
     /** The setting position of the rotor.*/
     private int position;
     /** Determines if the rotor has advanced.*/
@@ -20,9 +30,16 @@ class Rotor {
      * @param name name of rotor
      * @param perm The permutation of the rotor*/
     Rotor(String name, Permutation perm) {
+        this(name, perm, RotorTable.of(perm));
+    }
+
+    /** A rotor named NAME whose permutation in its 0 position is PERM,
+     *  converting through TABLE, which must hold PERM's conversions. */
+    Rotor(String name, Permutation perm, RotorTable table) {
         _name = name;
         _permutation = perm;
-        position = 0;
+        _table = table;
+        moveTo(0);
         advanced = false;
         onNotch = false;
     }
@@ -42,6 +59,11 @@ class Rotor {
         return _permutation;
     }
 
+    /** Return the conversion tables of my wiring. */
+    RotorTable table() {
+        return _table;
+    }
+
     /** Return the size of my alphabet. */
     int size() {
         return _permutation.size();
@@ -64,7 +86,17 @@ class Rotor {
 
     /** Set setting() to POSN.  */
     void set(int posn) {
-        position = _permutation.wrap(posn);
+        moveTo(_permutation.wrap(posn));
+    }
+
+    /** Set setting() to POSN, where 0 <= POSN < size(), and fetch my
+     *  conversions there. */
+    private void moveTo(int posn) {
+        position = posn;
+        if (_table.complete()) {
+            _forwardRow = _table.forward(position);
+            _backwardRow = _table.backward(position);
+        }
     }
 
     /** Set setting() to character CPOSN. */
@@ -75,21 +107,15 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int total = (permutation().permute(p + setting()) - setting()) % size();
-        if (total < 0) {
-            total += size();
-        }
-        return total;
+        int[] row = _forwardRow;
+        return row != null ? row[p] : _table.convertForward(position, p);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int total = (permutation().invert(e + setting()) - setting()) % size();
-        if (total < 0) {
-            total += size();
-        }
-        return total;
+        int[] row = _backwardRow;
+        return row != null ? row[e] : _table.convertBackward(position, e);
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -98,6 +124,11 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch in position POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing.*/
     void advance() {
     }
@@ -121,6 +152,12 @@ class Rotor {
     void setOnNotch(boolean onnotch) {
         this.onNotch = onnotch;
     }
+    /** Return a new rotor with my name, wiring, and notches, at
+     *  position 0.  The copy shares my conversion tables. */
+    Rotor copy() {
+        return new Rotor(_name, _permutation, _table);
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -0,0 +1,430 @@
+package enigma;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The conversions performed by a rotor wiring at each of its positions,
+ *  in both directions.  Tables depend only on the wiring, so all rotors
+ *  (in any number of machines) built from equal permutations share one
+ *  RotorTable for as long as any of them is in use.
+ *
+ *  A full table holds 2 * N * N ints for an alphabet of N symbols, which
+ *  is best for small alphabets and out of the question for very large
+ *  ones, so the conversions are held according to one of three
+ *  strategies (see Strategy), chosen from N and what remains of the
+ *  memory budget given by the property enigma.tableBudget (in bytes,
+ *  shared by all tables in use).  Tables found in the TableStore given
+ *  to useStore are read from it instead.
+ *  @author Kevin Li
+ */
+final class RotorTable {
+
+    /** Ways of holding the conversions. */
+    enum Strategy {
+        /** Every position is tabulated when the table is made. */
+        EAGER,
+        /** Positions are tabulated when first used, and only a fixed
+         *  number of recently used ones are kept. */
+        LAZY,
+        /** Nothing is tabulated; each conversion is computed from the
+         *  wiring with offset arithmetic. */
+        ARITHMETIC,
+        /** Every position is tabulated, off the heap, in a TableStore. */
+        MAPPED
+    }
+
+    /** A table for the wiring PERM, held according to STRATEGY, keeping
+     *  at most CAPACITY positions if STRATEGY is LAZY. */
+    RotorTable(Permutation perm, Strategy strategy, int capacity) {
+        _map = perm.forwardTable();
+        _inverse = perm.inverseTable();
+        _strategy = strategy;
+        int n = _map.length;
+        switch (strategy) {
+        case EAGER:
+            _forward = new int[n][];
+            _backward = new int[n][];
+            for (int posn = 0; posn < n; posn += 1) {
+                tabulate(posn);
+            }
+            _slots = null;
+            _used = null;
+            break;
+        case LAZY:
+            _forward = new int[n][];
+            _backward = new int[n][];
+            _slots = new int[capacity];
+            Arrays.fill(_slots, -1);
+            _used = new boolean[n];
+            break;
+        default:
+            _forward = _backward = null;
+            _slots = null;
+            _used = null;
+            break;
+        }
+        _mapped = null;
+        _base = 0;
+    }
+
+    /** A table for the wiring PERM whose forward rows, followed by its
+     *  backward rows, are at index BASE of INTS. */
+    RotorTable(Permutation perm, IntBuffer ints, int base) {
+        _map = perm.forwardTable();
+        _inverse = perm.inverseTable();
+        _strategy = Strategy.MAPPED;
+        _forward = _backward = null;
+        _slots = null;
+        _used = null;
+        _mapped = ints;
+        _base = base;
+    }
+
+    /** Read tables from STORE, if it has them, from now on. */
+    static void useStore(TableStore store) {
+        synchronized (TABLES) {
+            _store = store;
+        }
+    }
+
+    /** Return the (shared) table for the wiring PERM. */
+    static RotorTable of(Permutation perm) {
+        Key key = new Key(perm.forwardTable());
+        synchronized (TABLES) {
+            release();
+            Entry entry = TABLES.get(key);
+            RotorTable result = entry == null ? null : entry.get();
+            if (result != null) {
+                return result;
+            }
+            int base = _store == null ? -1 : _store.find(perm.forwardTable());
+            long bytes = 0;
+            if (base != -1) {
+                result = new RotorTable(perm, _store.ints(), base);
+            } else {
+                int n = perm.size();
+                long budget = Long.getLong("enigma.tableBudget", BUDGET);
+                budget = Math.max(0, budget - _spent);
+                Strategy strategy = choose(n, budget);
+                int capacity = capacity(n, budget);
+                result = new RotorTable(perm, strategy, capacity);
+                if (strategy == Strategy.EAGER) {
+                    bytes = ROW_BYTES * n * n;
+                } else if (strategy == Strategy.LAZY) {
+                    bytes = ROW_BYTES * n * capacity;
+                }
+            }
+            TABLES.put(key, new Entry(key, result, bytes));
+            _spent += bytes;
+            return result;
+        }
+    }
+
+    /** Forget the tables that are no longer in use and return their
+     *  share of the budget.  Caller must hold TABLES' lock. */
+    private static void release() {
+        for (Entry entry = (Entry) RELEASED.poll(); entry != null;
+             entry = (Entry) RELEASED.poll()) {
+            TABLES.remove(entry._key, entry);
+            _spent -= entry._bytes;
+        }
+    }
+
+    /** Return the strategy for an alphabet of N symbols with at most
+     *  BUDGET bytes of tables. */
+    static Strategy choose(int n, long budget) {
+        if (ROW_BYTES * n * n <= budget) {
+            return Strategy.EAGER;
+        } else if (capacity(n, budget) >= MIN_ROWS) {
+            return Strategy.LAZY;
+        } else {
+            return Strategy.ARITHMETIC;
+        }
+    }
+
+    /** Return the number of positions of an alphabet of N symbols that
+     *  fit in BUDGET bytes. */
+    static int capacity(int n, long budget) {
+        return (int) Math.min(n, budget / (ROW_BYTES * n));
+    }
+
+    /** Return my strategy. */
+    Strategy strategy() {
+        return _strategy;
+    }
+
+    /** Return true iff forward and backward are cheap (that is, they
+     *  return tabulated rows rather than computing or copying them).
+     *  For LAZY tables, that holds only for recently used positions, so
+     *  converters that visit every position in turn should fetch rows
+     *  only if I am complete(). */
+    boolean tabulated() {
+        return _strategy == Strategy.EAGER || _strategy == Strategy.LAZY;
+    }
+
+    /** Return true iff all my positions are tabulated on the heap, so
+     *  that forward and backward are cheap in any order. */
+    boolean complete() {
+        return _strategy == Strategy.EAGER;
+    }
+
+    /** Return the number of positions tabulated so far, counting again
+     *  any that were dropped and tabulated anew. */
+    int tabulations() {
+        return _tabulations;
+    }
+
+    /** Return the forward conversions at position POSN: entry P is the
+     *  result of passing P through the rotor from right to left.  The
+     *  result is shared and must not be modified.  Unless I am
+     *  tabulated(), it is built or copied afresh, at a cost proportional
+     *  to the alphabet size, so converters that move often should use
+     *  convertForward, or forward(POSN, ROW), instead. */
+    int[] forward(int posn) {
+        switch (_strategy) {
+        case EAGER:
+            return _forward[posn];
+        case LAZY:
+            synchronized (_slots) {
+                return _forward[use(posn)];
+            }
+        case MAPPED:
+            return copy(_base + posn * _map.length);
+        default:
+            return row(_map, posn);
+        }
+    }
+
+    /** Return the backward conversions at position POSN: the inverse
+     *  of forward(POSN).  Shared and built as for forward. */
+    int[] backward(int posn) {
+        switch (_strategy) {
+        case EAGER:
+            return _backward[posn];
+        case LAZY:
+            synchronized (_slots) {
+                return _backward[use(posn)];
+            }
+        case MAPPED:
+            return copy(_base + (_map.length + posn) * _map.length);
+        default:
+            return row(_inverse, posn);
+        }
+    }
+
+    /** Put the forward conversions at position POSN into ROW, which has
+     *  size() entries.  Unlike forward(POSN), this allocates nothing, so
+     *  it suits callers that keep their own rows of tables that are not
+     *  tabulated(). */
+    void forward(int posn, int[] row) {
+        switch (_strategy) {
+        case MAPPED:
+            _mapped.get(_base + posn * _map.length, row);
+            break;
+        case ARITHMETIC:
+            fill(_map, posn, row);
+            break;
+        default:
+            System.arraycopy(forward(posn), 0, row, 0, row.length);
+            break;
+        }
+    }
+
+    /** Put the backward conversions at position POSN into ROW, as for
+     *  forward(POSN, ROW). */
+    void backward(int posn, int[] row) {
+        switch (_strategy) {
+        case MAPPED:
+            _mapped.get(_base + (_map.length + posn) * _map.length, row);
+            break;
+        case ARITHMETIC:
+            fill(_inverse, posn, row);
+            break;
+        default:
+            System.arraycopy(backward(posn), 0, row, 0, row.length);
+            break;
+        }
+    }
+
+    /** Return the forward conversion of P at position POSN, computed
+     *  directly from the wiring. */
+    int convertForward(int posn, int p) {
+        if (_mapped != null) {
+            return _mapped.get(_base + posn * _map.length + p);
+        }
+        return shift(_map, posn, p);
+    }
+
+    /** Return the backward conversion of E at position POSN, computed
+     *  directly from the wiring. */
+    int convertBackward(int posn, int e) {
+        if (_mapped != null) {
+            return _mapped.get(_base + (_map.length + posn) * _map.length + e);
+        }
+        return shift(_inverse, posn, e);
+    }
+
+    /** Number of positions (and of symbols). */
+    int size() {
+        return _map.length;
+    }
+
+    /** Make sure position POSN is tabulated and mark it used,
+     *  returning POSN.  A new position takes the next slot whose
+     *  position has not been used since the last pass over the slots.
+     *  Caller must hold _slots' lock. */
+    private int use(int posn) {
+        if (_forward[posn] == null) {
+            while (_slots[_hand] != -1 && _used[_slots[_hand]]) {
+                _used[_slots[_hand]] = false;
+                _hand = (_hand + 1) % _slots.length;
+            }
+            int old = _slots[_hand];
+            if (old != -1) {
+                _forward[old] = _backward[old] = null;
+            }
+            _slots[_hand] = posn;
+            _hand = (_hand + 1) % _slots.length;
+            tabulate(posn);
+        }
+        _used[posn] = true;
+        return posn;
+    }
+
+    /** Fill in _forward[POSN] and _backward[POSN]. */
+    private void tabulate(int posn) {
+        _forward[posn] = row(_map, posn);
+        _backward[posn] = row(_inverse, posn);
+        _tabulations += 1;
+    }
+
+    /** Return a copy of the row at index START of _mapped. */
+    private int[] copy(int start) {
+        int[] result = new int[_map.length];
+        _mapped.get(start, result);
+        return result;
+    }
+
+    /** Return the conversions through MAP at position POSN. */
+    private static int[] row(int[] map, int posn) {
+        int[] result = new int[map.length];
+        fill(map, posn, result);
+        return result;
+    }
+
+    /** Put the conversions through MAP at position POSN into ROW. */
+    private static void fill(int[] map, int posn, int[] row) {
+        for (int p = 0; p < map.length; p += 1) {
+            row[p] = shift(map, posn, p);
+        }
+    }
+
+    /** Return the conversion of P through MAP offset by POSN, where
+     *  0 <= P, POSN < MAP.length. */
+    private static int shift(int[] map, int posn, int p) {
+        int n = map.length;
+        int i = p + posn;
+        if (i >= n) {
+            i -= n;
+        }
+        int e = map[i] - posn;
+        if (e < 0) {
+            e += n;
+        }
+        return e;
+    }
+
+    /** A wiring, compared by content, used to find shared tables.  Keys
+     *  serve as well for any other array of ints, such as the positions
+     *  a Stepper has seen. */
+    static final class Key {
+        /** A key for the image table MAP, which must not change. */
+        Key(int[] map) {
+            _map = map;
+            _hash = Arrays.hashCode(map);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(_map, ((Key) obj)._map);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Images of each index. */
+        private final int[] _map;
+        /** Cached hash of _map. */
+        private final int _hash;
+    }
+
+    /** A table in TABLES, which is released once no rotor uses it. */
+    private static final class Entry extends WeakReference<RotorTable> {
+        /** An entry for TABLE, whose wiring is KEY and which takes BYTES
+         *  of the budget. */
+        Entry(Key key, RotorTable table, long bytes) {
+            super(table, RELEASED);
+            _key = key;
+            _bytes = bytes;
+        }
+
+        /** The wiring of my table. */
+        private final Key _key;
+        /** Bytes of the budget taken by my table. */
+        private final long _bytes;
+    }
+
+    /** Default budget for all tables in use, in bytes. */
+    private static final long BUDGET = 64L << 20;
+    /** Bytes taken by the forward and backward conversions of one symbol
+     *  at one position. */
+    private static final long ROW_BYTES = 2 * Integer.BYTES;
+    /** Fewest positions worth caching; with a smaller budget, conversions
+     *  are computed instead. */
+    private static final int MIN_ROWS = 16;
+
+    /** Tables that may still be in use, by wiring. */
+    private static final Map<Key, Entry> TABLES = new HashMap<>();
+    /** Entries of TABLES whose tables are no longer in use. */
+    private static final ReferenceQueue<RotorTable> RELEASED =
+        new ReferenceQueue<>();
+    /** Bytes of the budget taken by the tables in TABLES. */
+    private static long _spent;
+    /** Source of mapped tables, or null. */
+    private static TableStore _store;
+
+    /** My wiring: images of each index at position 0. */
+    private final int[] _map;
+    /** Preimages of each index at position 0. */
+    private final int[] _inverse;
+    /** How I hold my conversions. */
+    private final Strategy _strategy;
+    /** _forward[POSN][P] is the forward conversion of P at POSN, or
+     *  _forward[POSN] is null if POSN is not tabulated.  Null for
+     *  ARITHMETIC. */
+    private final int[][] _forward;
+    /** _backward[POSN][E] is the backward conversion of E at POSN, as
+     *  for _forward. */
+    private final int[][] _backward;
+    /** Tabulated positions, or -1 for empty slots, for LAZY; null
+     *  otherwise. */
+    private final int[] _slots;
+    /** _used[POSN] is true iff POSN has been used since the last pass
+     *  over _slots, for LAZY; null otherwise. */
+    private final boolean[] _used;
+    /** Index of the next slot to consider replacing. */
+    private int _hand;
+    /** Number of positions tabulated so far. */
+    private int _tabulations;
+    /** Contents of the TableStore holding my rows, for MAPPED; null
+     *  otherwise. */
+    private final IntBuffer _mapped;
+    /** Index of my forward rows in _mapped. */
+    private final int _base;
+}
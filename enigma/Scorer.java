@@ -0,0 +1,48 @@
+package enigma;
+
+/** A measure of how much a candidate decryption, given as a sequence of
+ *  alphabet indices, resembles plaintext: higher scores are better.  A
+ *  Scorer is shared by the threads of a Search, each of which scores its
+ *  candidates with Tallies of its own.
+ *  @author Kevin Li
+ */
+abstract class Scorer {
+
+    /** Return a new, empty tally for texts of LENGTH symbols. */
+    abstract Tally tally(int length);
+
+    /** The score of a text that arrives a piece at a time.  Besides the
+     *  score of the whole text, a tally gives an upper bound on the score
+     *  of any text that starts with the pieces seen so far, so that a
+     *  candidate can be abandoned as soon as it cannot do well enough. */
+    abstract static class Tally {
+
+        /** A tally for texts of LENGTH symbols. */
+        Tally(int length) {
+            _length = length;
+        }
+
+        /** Forget all symbols added so far. */
+        abstract void clear();
+
+        /** Add the LEN symbols SYMBOLS[OFF .. OFF + LEN - 1] to the end of
+         *  the text. */
+        abstract void add(int[] symbols, int off, int len);
+
+        /** Return the score of the text, all of whose symbols must have
+         *  been added. */
+        abstract double score();
+
+        /** Return an upper bound on score() for any text that starts
+         *  with the symbols added so far. */
+        abstract double bound();
+
+        /** Return the length of the texts I score. */
+        int length() {
+            return _length;
+        }
+
+        /** Length of the texts I score. */
+        private final int _length;
+    }
+}
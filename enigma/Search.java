@@ -0,0 +1,290 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** An exhaustive search for the rotor order and start positions that
+ *  decrypt a ciphertext into the text a Scorer likes best (and, among
+ *  equal scores, whose setting lines come first).  Every order
+ *  of rotors from a machine's catalog that the machine accepts (a
+ *  reflector, rotors that do not move in the slots without pawls, and
+ *  moving rotors in the slots with them) is tried at every setting, with
+ *  the machine's plugboard.  The best candidates are kept in a
+ *  TopCandidates.
+ *
+ *  The work is divided among the threads of a ForkJoinPool by splitting
+ *  the orders, and then the settings of each order, in halves, each
+ *  thread converting with its own copy of the machine.  A candidate is
+ *  abandoned as soon as its Tally shows that it cannot even tie the worst
+ *  candidate kept, so that most are rejected after a fraction of the
+ *  ciphertext.  Since the bound is never too low, and ties are left to
+ *  TopCandidates.offer, abandoning candidates does not change the
+ *  result.
+ *  @author Kevin Li
+ */
+final class Search {
+
+    /** A search of the settings of MACHINE that decrypt CIPHERTEXT (a
+     *  sequence of indices into the machine's alphabet), keeping the
+     *  best KEEP by SCORER. */
+    Search(Machine machine, int[] ciphertext, Scorer scorer, int keep) {
+        if (ciphertext.length == 0) {
+            throw error("no ciphertext to search with");
+        }
+        _machine = machine;
+        _ciphertext = ciphertext.clone();
+        _scorer = scorer;
+        _keep = keep;
+        int size = machine.alphabet().size();
+        long settings = 1;
+        for (int i = 1; i < machine.numRotors(); i += 1) {
+            if (settings > Long.MAX_VALUE / size) {
+                throw error("too many settings to search");
+            }
+            settings *= size;
+        }
+        _settings = settings;
+    }
+
+    /** Return every order of rotors from the catalog of MACHINE that it
+     *  accepts, as arrays of rotor names, reflector first. */
+    static List<String[]> orders(Machine machine) {
+        TreeSet<String> reflectors = new TreeSet<>();
+        TreeSet<String> fixed = new TreeSet<>();
+        TreeSet<String> moving = new TreeSet<>();
+        for (Rotor rotor : machine.allRotors()) {
+            if (rotor.reflecting()) {
+                reflectors.add(rotor.name());
+            } else if (rotor.rotates()) {
+                moving.add(rotor.name());
+            } else {
+                fixed.add(rotor.name());
+            }
+        }
+        int k = machine.numRotors();
+        int firstPawl = k - machine.numPawls();
+        List<String[]> result = new ArrayList<>();
+        String[] order = new String[k];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            arrange(order, 1, firstPawl, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Fill ORDER[SLOT ..] in every possible way with distinct rotors,
+     *  taken from FIXED in slots before FIRSTPAWL and from MOVING in the
+     *  others, adding a copy of each completed order to RESULT. */
+    private static void arrange(String[] order, int slot, int firstPawl,
+                                TreeSet<String> fixed,
+                                TreeSet<String> moving,
+                                List<String[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        TreeSet<String> choices = slot < firstPawl ? fixed : moving;
+        for (String name : new ArrayList<>(choices)) {
+            choices.remove(name);
+            order[slot] = name;
+            arrange(order, slot + 1, firstPawl, fixed, moving, result);
+            choices.add(name);
+        }
+    }
+
+    /** Search every order in ORDERS, an arrangement of rotor names
+     *  (reflector first) acceptable to my machine, at every setting,
+     *  using the threads of POOL, and return the best candidates, best
+     *  first. */
+    List<Candidate> search(List<String[]> orders, ForkJoinPool pool) {
+        Machine check = _machine.copy();
+        for (String[] order : orders) {
+            check.insertRotors(order);
+        }
+        TopCandidates top = new TopCandidates(_keep);
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+        pool.invoke(new Part(orders, 0, orders.size(), 0, _settings,
+                             top, workers));
+        return top.best();
+    }
+
+    /** Return all settings of my machine, as for search(List, pool). */
+    List<Candidate> search(ForkJoinPool pool) {
+        return search(orders(_machine), pool);
+    }
+
+    /** Return the number of settings of each rotor order. */
+    long settings() {
+        return _settings;
+    }
+
+    /** The portion of a search that covers a range of rotor orders and,
+     *  when there is only one order, a range of its settings. */
+    @SuppressWarnings("serial")
+    private class Part extends RecursiveAction {
+
+        /** The search of ORDERS[FIRST .. LAST - 1] at settings FROM .. TO
+         *  - 1 (numbered as in Worker.position), keeping candidates in TOP
+         *  and converting with the Workers in WORKERS. */
+        Part(List<String[]> orders, int first, int last, long from, long to,
+             TopCandidates top, ThreadLocal<Worker> workers) {
+            _orders = orders;
+            _first = first;
+            _last = last;
+            _from = from;
+            _to = to;
+            _top = top;
+            _workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (_last - _first > 1) {
+                int mid = (_first + _last) >>> 1;
+                invokeAll(new Part(_orders, _first, mid, _from, _to,
+                                   _top, _workers),
+                          new Part(_orders, mid, _last, _from, _to,
+                                   _top, _workers));
+            } else if (_to - _from > BATCH_SIZE) {
+                long mid = (_from + _to) >>> 1;
+                invokeAll(new Part(_orders, _first, _last, _from, mid,
+                                   _top, _workers),
+                          new Part(_orders, _first, _last, mid, _to,
+                                   _top, _workers));
+            } else if (_first < _last) {
+                _workers.get().run(_orders.get(_first), _from, _to, _top);
+            }
+        }
+
+        /** The rotor orders of the whole search. */
+        private final List<String[]> _orders;
+        /** Index in _orders of my first order. */
+        private final int _first;
+        /** Index in _orders just past my last order. */
+        private final int _last;
+        /** Number of my first setting. */
+        private final long _from;
+        /** Number just past my last setting. */
+        private final long _to;
+        /** Best candidates so far. */
+        private final TopCandidates _top;
+        /** Converters for each thread. */
+        private final ThreadLocal<Worker> _workers;
+    }
+
+    /** A copy of my machine, and the buffers to try its settings with,
+     *  for the use of one thread. */
+    private class Worker {
+
+        /** A worker with a copy of my machine, fitted with my machine's
+         *  plugboard. */
+        Worker() {
+            _copy = _machine.copy();
+            _copy.setPlugboard(_machine.plugboard());
+            _copy.setEngine(new FlatEngine());
+            _posns = new int[_machine.numRotors() - 1];
+            _plaintext = new int[_ciphertext.length];
+            _tally = _scorer.tally(_ciphertext.length);
+        }
+
+        /** Try ORDER at settings FROM .. TO - 1, offering those that reach
+         *  the threshold of TOP to it, which settles ties. */
+        void run(String[] order, long from, long to, TopCandidates top) {
+            _copy.insertRotors(order);
+            int[] in = _ciphertext;
+            int[] out = _plaintext;
+            for (long setting = from; setting < to; setting += 1) {
+                position(setting);
+                _copy.setRotors(_posns);
+                _tally.clear();
+                boolean hopeless = false;
+                for (int i = 0; i < in.length && !hopeless;
+                     i += CHECK_SIZE) {
+                    int len = Math.min(CHECK_SIZE, in.length - i);
+                    _copy.convert(in, i, out, i, len);
+                    _tally.add(out, i, len);
+                    hopeless = _tally.bound() < top.threshold();
+                }
+                if (!hopeless) {
+                    double score = _tally.score();
+                    if (score >= top.threshold()) {
+                        top.offer(new Candidate(settingLine(order),
+                                                text(out), score));
+                    }
+                }
+            }
+        }
+
+        /** Set _posns to setting number SETTING, in which the setting of
+         *  the rightmost rotor is the least significant digit in base
+         *  alphabet size. */
+        private void position(long setting) {
+            int size = _machine.alphabet().size();
+            for (int i = _posns.length - 1; i >= 0; i -= 1) {
+                _posns[i] = (int) (setting % size);
+                setting /= size;
+            }
+        }
+
+        /** Return the setting line for ORDER at positions _posns, with my
+         *  plugboard. */
+        private String settingLine(String[] order) {
+            Alphabet alpha = _machine.alphabet();
+            StringBuilder line = new StringBuilder("*");
+            for (String name : order) {
+                line.append(' ').append(name);
+            }
+            line.append(' ');
+            for (int posn : _posns) {
+                line.appendCodePoint(alpha.toCodePoint(posn));
+            }
+            String cycles = _machine.plugboard().cycles();
+            if (!cycles.isEmpty()) {
+                line.append(' ').append(cycles);
+            }
+            return line.toString();
+        }
+
+        /** Return the symbols of my alphabet whose indices are
+         *  SYMBOLS. */
+        private String text(int[] symbols) {
+            Alphabet alpha = _machine.alphabet();
+            StringBuilder result = new StringBuilder(symbols.length);
+            for (int s : symbols) {
+                result.appendCodePoint(alpha.toCodePoint(s));
+            }
+            return result.toString();
+        }
+
+        /** My copy of the machine. */
+        private final Machine _copy;
+        /** Rotor positions being tried. */
+        private final int[] _posns;
+        /** Decryption being tried. */
+        private final int[] _plaintext;
+        /** Score of _plaintext. */
+        private final Scorer.Tally _tally;
+    }
+
+    /** Largest number of settings of one order tried by a single task. */
+    static final int BATCH_SIZE = 1 << 12;
+    /** Number of characters converted between checks on whether a
+     *  candidate is hopeless. */
+    private static final int CHECK_SIZE = 32;
+
+    /** The machine whose settings are searched. */
+    private final Machine _machine;
+    /** The ciphertext, as indices into the alphabet. */
+    private final int[] _ciphertext;
+    /** Measure of plaintext. */
+    private final Scorer _scorer;
+    /** Number of candidates to keep. */
+    private final int _keep;
+    /** Number of settings of each rotor order. */
+    private final long _settings;
+}
@@ -0,0 +1,212 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A precompiled, validated machine description that can be loaded
+ *  without parsing.  A snapshot is written from a configured Machine and
+ *  read back through a single memory mapping.
+ *
+ *  The file is a sequence of ints in native byte order: MAGIC, VERSION,
+ *  the index (in ints) of the table section, the alphabet as its size
+ *  and code points, the number of slots and of pawls, and the number of
+ *  rotors followed by each rotor as its kind (MOVING, FIXED, or
+ *  REFLECTOR), its name and notches (each a length and code points), and
+ *  its wiring.  The table section is a TableStore file holding the tables
+ *  of the wirings, leaving out those that would make the snapshot too
+ *  large to map.
+ *  @author Kevin Li
+ */
+final class Snapshot {
+
+    /** Not instantiable. */
+    private Snapshot() {
+    }
+
+    /** Return true iff FILE begins like a snapshot. */
+    static boolean isSnapshot(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer head = ByteBuffer.allocate(Integer.BYTES)
+                .order(ByteOrder.nativeOrder());
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                continue;
+            }
+            return !head.hasRemaining() && head.getInt(0) == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write a snapshot of MACHINE, with all its available rotors, to
+     *  FILE. */
+    static void write(Machine machine, Path file) {
+        write(machine, file, TableStore.LIMIT);
+    }
+
+    /** Write a snapshot of MACHINE to FILE, as for write(MACHINE, FILE),
+     *  leaving out any tables that would make it longer than LIMIT
+     *  bytes. */
+    static void write(Machine machine, Path file, long limit) {
+        Alphabet alphabet = machine.alphabet();
+        int n = alphabet.size();
+        long size = 3 + 1 + n + 3;
+        for (Rotor rotor : machine.allRotors()) {
+            String name = rotor.name(), notches = notches(rotor);
+            size += 3 + name.codePointCount(0, name.length())
+                + notches.codePointCount(0, notches.length()) + n;
+        }
+        if (size * Integer.BYTES > TableStore.LIMIT) {
+            throw error("machine is too large for a snapshot");
+        }
+        ByteBuffer header = ByteBuffer.allocate((int) size * Integer.BYTES)
+            .order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC).putInt(VERSION).putInt((int) size);
+        header.putInt(n);
+        for (int i = 0; i < n; i += 1) {
+            header.putInt(alphabet.toCodePoint(i));
+        }
+        header.putInt(machine.numRotors());
+        header.putInt(machine.numPawls());
+        header.putInt(machine.allRotors().size());
+        List<Permutation> wirings = new ArrayList<>();
+        for (Rotor rotor : machine.allRotors()) {
+            if (rotor.reflecting()) {
+                header.putInt(REFLECTOR);
+            } else if (rotor.rotates()) {
+                header.putInt(MOVING);
+            } else {
+                header.putInt(FIXED);
+            }
+            putString(header, rotor.name());
+            putString(header, notches(rotor));
+            for (int e : rotor.permutation().forwardTable()) {
+                header.putInt(e);
+            }
+            wirings.add(rotor.permutation());
+        }
+        header.flip();
+        TableStore.writeFile(file, header, TableStore.encode(
+            wirings, Math.min(limit, TableStore.LIMIT) - header.limit()));
+    }
+
+    /** Return the machine whose snapshot is in FILE.  Its rotors (and
+     *  their copies) read their tables from the mapped snapshot, whatever
+     *  tables the rest of the process uses for the same wirings.  Rotors
+     *  whose tables the snapshot lacks use RotorTable.of instead. */
+    static Machine load(Path file) {
+        IntBuffer ints;
+        try (FileChannel channel = FileChannel.open(file)) {
+            ints = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size())
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        }
+        if (ints.limit() < 3 || ints.get(0) != MAGIC) {
+            throw error("%s is not a machine snapshot", file);
+        }
+        if (ints.get(1) != VERSION) {
+            throw error("machine snapshot has unsupported version %d",
+                        ints.get(1));
+        }
+        try {
+            TableStore store =
+                TableStore.of(ints.position(ints.get(2)).slice());
+            ints.position(3);
+            Alphabet alphabet = alphabet(getInts(ints));
+            int numRotors = ints.get();
+            int pawls = ints.get();
+            int count = ints.get();
+            List<Rotor> rotors = new ArrayList<>();
+            for (int k = 0; k < count; k += 1) {
+                int kind = ints.get();
+                String name = getString(ints);
+                String notches = getString(ints);
+                int[] map = new int[alphabet.size()];
+                ints.get(map);
+                Permutation perm = new Permutation(map, alphabet);
+                int base = store.find(map);
+                RotorTable table = base == -1 ? RotorTable.of(perm)
+                    : new RotorTable(perm, store.ints(), base);
+                switch (kind) {
+                case MOVING:
+                    rotors.add(new MovingRotor(name, perm, notches, table));
+                    break;
+                case FIXED:
+                    rotors.add(new FixedRotor(name, perm, table));
+                    break;
+                case REFLECTOR:
+                    rotors.add(new Reflector(name, perm, table));
+                    break;
+                default:
+                    throw error("bad rotor kind in machine snapshot");
+                }
+            }
+            return new Machine(alphabet, numRotors, pawls, rotors);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException
+                 | BufferUnderflowException | NegativeArraySizeException excp) {
+            throw error("machine snapshot %s is truncated", file);
+        }
+    }
+
+    /** Return the alphabet of the code points CODEPOINTS, using the
+     *  simplest Alphabet that can hold them. */
+    static Alphabet alphabet(int[] codePoints) {
+        boolean bmp = true, range = true;
+        for (int i = 0; i < codePoints.length; i += 1) {
+            bmp &= Character.isBmpCodePoint(codePoints[i]);
+            range &= codePoints[i] == codePoints[0] + i;
+        }
+        String symbols = new String(codePoints, 0, codePoints.length);
+        if (bmp && range) {
+            return new CharacterRange((char) codePoints[0],
+                                      (char) codePoints[codePoints.length - 1]);
+        } else if (bmp) {
+            return new CharacterTable(symbols);
+        } else {
+            return new CodePointTable(symbols);
+        }
+    }
+
+    /** Return the notches of ROTOR, or "" if it has none. */
+    private static String notches(Rotor rotor) {
+        return rotor instanceof MovingRotor
+            ? ((MovingRotor) rotor).notches() : "";
+    }
+
+    /** Put the length and code points of S into HEADER. */
+    private static void putString(ByteBuffer header, String s) {
+        header.putInt(s.codePointCount(0, s.length()));
+        s.codePoints().forEach(header::putInt);
+    }
+
+    /** Read a length and that many ints from INTS, returning the ints. */
+    private static int[] getInts(IntBuffer ints) {
+        int[] result = new int[ints.get()];
+        ints.get(result);
+        return result;
+    }
+
+    /** Read a string written by putString from INTS. */
+    private static String getString(IntBuffer ints) {
+        int[] codePoints = getInts(ints);
+        return new String(codePoints, 0, codePoints.length);
+    }
+
+    /** First int of every snapshot. */
+    static final int MAGIC = 0x456E4D53;
+    /** Version of the layout described above. */
+    static final int VERSION = 1;
+
+    /** Kinds of rotor. */
+    private static final int MOVING = 0, FIXED = 1, REFLECTOR = 2;
+}
@@ -0,0 +1,270 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The stepping rules of a rotor lineup, tabulated so that a keypress can
+ *  be applied to an array of rotor positions without consulting the
+ *  rotors themselves.  The rules are those of Machine.advanceRotors: the
+ *  fast rotor moves on every keypress if it can; a rotor in a pawl slot
+ *  moves when the rotor to its right is at a notch; and a rotor at a notch
+ *  moves along with a pawled rotor to its left (the double step).
+ *  @author Kevin Li
+ */
+final class Stepper {
+
+    /** Stepping rules for ROTORS (reflector first) in a machine with
+     *  NUMPAWLS pawls. */
+    Stepper(List<Rotor> rotors, int numPawls) {
+        int k = rotors.size();
+        int n = rotors.get(0).size();
+        _size = n;
+        _notches = new boolean[k][n];
+        _carried = new boolean[k];
+        _doubled = new boolean[k];
+        int firstPawl = k - numPawls;
+        for (int j = 0; j < k; j += 1) {
+            Rotor rotor = rotors.get(j);
+            if (rotor.rotates()) {
+                for (int posn = 0; posn < n; posn += 1) {
+                    _notches[j][posn] = rotor.notchAt(posn);
+                }
+            }
+            _carried[j] = j < k - 1 && j >= firstPawl && rotor.rotates();
+            _doubled[j] = j >= 1 && _carried[j - 1];
+        }
+        _fastMoves = rotors.get(k - 1).rotates();
+        _toNotch = new int[k][n];
+        for (int j = 0; j < k; j += 1) {
+            int distance = -1;
+            for (int posn = 2 * n - 1; posn >= 0; posn -= 1) {
+                if (_notches[j][posn % n]) {
+                    distance = 0;
+                } else if (distance >= 0) {
+                    distance += 1;
+                }
+                _toNotch[j][posn % n] = distance;
+            }
+        }
+        int first = k;
+        for (int j = k - 1; j >= 0; j -= 1) {
+            if (_carried[j] || (j == k - 1 && _fastMoves)) {
+                first = j;
+            }
+        }
+        _first = first;
+    }
+
+    /** Return the leftmost slot whose rotor can ever move, or the number
+     *  of slots if none can. */
+    int first() {
+        return _first;
+    }
+
+    /** Return the number of slots. */
+    int slots() {
+        return _notches.length;
+    }
+
+    /** Return the number of positions of each rotor. */
+    int size() {
+        return _size;
+    }
+
+    /** Return true iff the rotor in SLOT moves and is at a notch when at
+     *  position POSN. */
+    boolean notch(int slot, int posn) {
+        return _notches[slot][posn];
+    }
+
+    /** Apply one keypress to POSNS, the positions of my slots, returning
+     *  the leftmost slot that moved, or slots() if none did. */
+    int step(int[] posns) {
+        return step(posns, _first);
+    }
+
+    /** Apply one keypress to the rotors in slots FROM and after, whose
+     *  positions are in POSNS.  Stepping a suffix of the slots never
+     *  depends on the rotors to its left.  Returns the leftmost slot that
+     *  moved, or slots() if none did. */
+    int step(int[] posns, int from) {
+        int k = posns.length, last = k - 1;
+        int moved = k;
+        if (from > last) {
+            return moved;
+        }
+        boolean here = _notches[from][posns[from]];
+        for (int j = from; j < last; j += 1) {
+            boolean next = _notches[j + 1][posns[j + 1]];
+            if ((_carried[j] && next) || (_doubled[j] && here)) {
+                posns[j] = posns[j] + 1 == _size ? 0 : posns[j] + 1;
+                if (moved == k) {
+                    moved = j;
+                }
+            }
+            here = next;
+        }
+        if (_fastMoves) {
+            posns[last] = posns[last] + 1 == _size ? 0 : posns[last] + 1;
+            if (moved == k) {
+                moved = last;
+            }
+        }
+        return moved;
+    }
+
+    /** Apply COUNT keypresses to POSNS, the positions of my slots.  The
+     *  result is the same as that of COUNT calls to step, but is found by
+     *  jumping from notch to notch, slot by slot from the right, and by
+     *  skipping whole periods of the lineup once they repeat, so that the
+     *  cost depends on the number of slots and positions but not on
+     *  COUNT. */
+    void advance(int[] posns, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("negative count");
+        }
+        List<Map<RotorTable.Key, Jump>> jumps = new ArrayList<>();
+        for (int j = 0; j < posns.length; j += 1) {
+            jumps.add(new HashMap<>());
+        }
+        advance(posns, _first, count, jumps);
+    }
+
+    /** Apply COUNT keypresses to the rotors in slots FROM and after, whose
+     *  positions are in POSNS, using and adding to the jumps already
+     *  found in JUMPS. */
+    private void advance(int[] posns, int from, long count,
+                         List<Map<RotorTable.Key, Jump>> jumps) {
+        int last = posns.length - 1;
+        while (from < last && !_carried[from]) {
+            from += 1;
+        }
+        if (count == 0 || from > last) {
+            return;
+        }
+        if (from == last) {
+            if (_fastMoves) {
+                posns[last] = (int) ((posns[last] + count) % _size);
+            }
+            return;
+        }
+        Map<RotorTable.Key, Long> seen = new HashMap<>();
+        while (count > 0) {
+            if (seen != null) {
+                Long before = seen.put(key(posns, from), count);
+                if (before != null) {
+                    count %= before - count;
+                    seen = null;
+                    continue;
+                }
+            }
+            if (_doubled[from] && _notches[from][posns[from]]) {
+                step(posns, from);
+                count -= 1;
+                continue;
+            }
+            int[] next = posns.clone();
+            long wait = jump(next, from + 1, jumps);
+            if (wait >= count) {
+                advance(posns, from + 1, count, jumps);
+                return;
+            }
+            System.arraycopy(next, from + 1, posns, from + 1, last - from);
+            step(posns, from);
+            count -= wait + 1;
+        }
+    }
+
+    /** Return the number of keypresses before the rotor in slot M is next
+     *  at one of its notches (0 if it is there now), and set POSNS, the
+     *  positions of my slots, to their values at that moment.  Returns
+     *  NEVER, leaving POSNS unchanged, if that rotor never reaches a notch
+     *  (within the range of a long).  Results for slot M are remembered in
+     *  JUMPS.get(M). */
+    private long jump(int[] posns, int m,
+                      List<Map<RotorTable.Key, Jump>> jumps) {
+        int last = posns.length - 1;
+        if (_notches[m][posns[m]]) {
+            return 0;
+        }
+        if (m == last) {
+            int wait = _toNotch[m][posns[m]];
+            if (!_fastMoves || wait < 0) {
+                return NEVER;
+            }
+            posns[m] = (posns[m] + wait) % _size;
+            return wait;
+        }
+        if (!_carried[m] || _toNotch[m][posns[m]] < 0) {
+            return NEVER;
+        }
+        RotorTable.Key key = key(posns, m);
+        Jump known = jumps.get(m).get(key);
+        if (known == null) {
+            int[] cur = posns.clone();
+            long total = 0;
+            while (!_notches[m][cur[m]] && total != NEVER) {
+                long wait = jump(cur, m + 1, jumps);
+                if (wait >= NEVER - total - 1) {
+                    total = NEVER;
+                } else {
+                    step(cur, m);
+                    total += wait + 1;
+                }
+            }
+            known = new Jump(total, cur, m);
+            jumps.get(m).put(key, known);
+        }
+        if (known.wait != NEVER) {
+            System.arraycopy(known.posns, 0, posns, m, known.posns.length);
+        }
+        return known.wait;
+    }
+
+    /** Return a key identifying the positions in POSNS of slots FROM and
+     *  after. */
+    private static RotorTable.Key key(int[] posns, int from) {
+        return new RotorTable.Key(Arrays.copyOfRange(posns, from,
+                                                     posns.length));
+    }
+
+    /** The result of waiting for a rotor to reach a notch. */
+    private static final class Jump {
+        /** A wait of WAIT keypresses, after which the slots from FROM on
+         *  have the positions POSNS[FROM ..]. */
+        Jump(long wait, int[] posns, int from) {
+            this.wait = wait;
+            this.posns = Arrays.copyOfRange(posns, from, posns.length);
+        }
+
+        /** Number of keypresses waited, or NEVER. */
+        private final long wait;
+        /** Positions of the slots from the waiting rotor on afterwards. */
+        private final int[] posns;
+    }
+
+    /** A wait longer than any count of keypresses. */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /** Number of positions of each rotor. */
+    private final int _size;
+    /** _notches[J][P] is true iff the rotor in slot J moves and has a
+     *  notch at position P. */
+    private final boolean[][] _notches;
+    /** _carried[J] is true iff the rotor in slot J is moved by a notch
+     *  on the rotor to its right. */
+    private final boolean[] _carried;
+    /** _doubled[J] is true iff the rotor in slot J moves when it is
+     *  itself at a notch. */
+    private final boolean[] _doubled;
+    /** True iff the fast rotor moves on every keypress. */
+    private final boolean _fastMoves;
+    /** Leftmost slot that can move. */
+    private final int _first;
+    /** _toNotch[J][P] is the number of positions from P to the next notch
+     *  of slot J (0 at a notch), or -1 if it has none. */
+    private final int[][] _toNotch;
+}
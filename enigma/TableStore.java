@@ -0,0 +1,159 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A file of compiled rotor tables, read through a memory mapping.  Any
+ *  number of processes can map the same file, so the tables exist once,
+ *  in the operating system's page cache, rather than once per heap, and
+ *  nothing is built when a process starts.
+ *
+ *  The file is a sequence of ints in native byte order: MAGIC, VERSION,
+ *  and the number of tables, followed by each table as its size N, its
+ *  wiring (N images), its N forward rows of N entries, and its N backward
+ *  rows.  A file holds at most LIMIT bytes, so it may leave out the
+ *  tables of some wirings; RotorTable.of builds those as usual.
+ *  @author Kevin Li
+ */
+final class TableStore {
+
+    /** A store of the tables in the mapped file contents INTS. */
+    private TableStore(IntBuffer ints) {
+        _ints = ints;
+        if (ints.limit() < 3 || ints.get(0) != MAGIC) {
+            throw error("not a rotor table file");
+        }
+        if (ints.get(1) != VERSION) {
+            throw error("rotor table file has unsupported version %d",
+                        ints.get(1));
+        }
+        int count = ints.get(2);
+        int pos = 3;
+        for (int k = 0; k < count; k += 1) {
+            int n = ints.get(pos);
+            int[] map = new int[n];
+            ints.get(pos + 1, map);
+            _offsets.put(new RotorTable.Key(map), pos + 1 + n);
+            pos += 1 + n + 2 * n * n;
+        }
+    }
+
+    /** Return a store mapping the table file FILE. */
+    static TableStore map(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TableStore(bytes.order(ByteOrder.nativeOrder())
+                                  .asIntBuffer());
+        } catch (IOException excp) {
+            throw error("could not map %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return a store of the tables in INTS, which has the layout of a
+     *  table file. */
+    static TableStore of(IntBuffer ints) {
+        return new TableStore(ints);
+    }
+
+    /** Write the full tables for the wirings PERMS (ignoring duplicates)
+     *  to FILE, as for encode(PERMS, LIMIT). */
+    static void write(Path file, Collection<Permutation> perms) {
+        writeFile(file, encode(perms, LIMIT));
+    }
+
+    /** Return the contents of a table file holding the full tables for
+     *  the wirings PERMS (ignoring duplicates), taken in order and
+     *  leaving out any whose table would make the contents longer than
+     *  LIMIT bytes. */
+    static ByteBuffer encode(Collection<Permutation> perms, long limit) {
+        Map<RotorTable.Key, Permutation> wirings = new LinkedHashMap<>();
+        long total = 3;
+        for (Permutation perm : perms) {
+            long n = perm.size();
+            long size = 1 + n + 2 * n * n;
+            RotorTable.Key key = new RotorTable.Key(perm.forwardTable());
+            if ((total + size) * Integer.BYTES <= limit
+                && wirings.putIfAbsent(key, perm) == null) {
+                total += size;
+            }
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) total * Integer.BYTES)
+            .order(ByteOrder.nativeOrder());
+        IntBuffer ints = bytes.asIntBuffer();
+        ints.put(MAGIC).put(VERSION).put(wirings.size());
+        for (Permutation perm : wirings.values()) {
+            int n = perm.size();
+            RotorTable table =
+                new RotorTable(perm, RotorTable.Strategy.EAGER, n);
+            ints.put(n).put(perm.forwardTable());
+            for (int posn = 0; posn < n; posn += 1) {
+                ints.put(table.forward(posn));
+            }
+            for (int posn = 0; posn < n; posn += 1) {
+                ints.put(table.backward(posn));
+            }
+        }
+        return bytes;
+    }
+
+    /** Write the contents of CONTENTS, in order, to FILE.  The file is
+     *  written under a temporary name and then moved into place, so other
+     *  processes never map a partial file. */
+    static void writeFile(Path file, ByteBuffer... contents) {
+        try {
+            Path temp = Files.createTempFile(file.toAbsolutePath()
+                                             .getParent(), "tables", ".tmp");
+            try (FileChannel channel =
+                     FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (ByteBuffer bytes : contents) {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Return the index in my buffer of the forward rows of the table for
+     *  the wiring MAP, or -1 if I do not have it.  The backward rows
+     *  follow them. */
+    int find(int[] map) {
+        Integer offset = _offsets.get(new RotorTable.Key(map));
+        return offset == null ? -1 : offset;
+    }
+
+    /** Return the contents of my file. */
+    IntBuffer ints() {
+        return _ints;
+    }
+
+    /** First int of every table file. */
+    static final int MAGIC = 0x456E5442;
+    /** Version of the layout described above. */
+    static final int VERSION = 1;
+    /** Largest table file, in bytes: the most a ByteBuffer can hold. */
+    static final long LIMIT = Integer.MAX_VALUE;
+
+    /** Contents of my file. */
+    private final IntBuffer _ints;
+    /** Positions of the forward rows of each table, by wiring. */
+    private final Map<RotorTable.Key, Integer> _offsets = new HashMap<>();
+}
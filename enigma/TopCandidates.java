@@ -0,0 +1,67 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.*;
+
+/** The best candidates offered so far, up to a fixed number of them,
+ *  shared by the threads of a search.  The score a candidate must reach
+ *  to be kept can be read without locking, so that the great majority of
+ *  candidates, which do not reach it, are turned away without contention
+ *  (and without being built: see threshold).
+ *  @author Kevin Li
+ */
+final class TopCandidates {
+
+    /** A collection that keeps the best CAPACITY candidates. */
+    TopCandidates(int capacity) {
+        if (capacity <= 0) {
+            throw error("number of candidates kept must be positive");
+        }
+        _capacity = capacity;
+        _heap = new PriorityQueue<>(capacity, Collections.reverseOrder());
+        _threshold = Double.NEGATIVE_INFINITY;
+    }
+
+    /** Return the score a candidate must reach to be kept: that of the
+     *  worst candidate kept, once there are as many as I keep, and
+     *  otherwise negative infinity.  A candidate that only ties it is
+     *  kept if its setting comes before the worst one's.  It never
+     *  decreases. */
+    double threshold() {
+        return _threshold;
+    }
+
+    /** Keep CANDIDATE if it is among the best offered so far, returning
+     *  true iff I do. */
+    synchronized boolean offer(Candidate candidate) {
+        if (_heap.size() == _capacity) {
+            if (candidate.compareTo(_heap.peek()) >= 0) {
+                return false;
+            }
+            _heap.poll();
+        }
+        _heap.add(candidate);
+        if (_heap.size() == _capacity) {
+            _threshold = _heap.peek().score();
+        }
+        return true;
+    }
+
+    /** Return the candidates I have kept, best first. */
+    synchronized List<Candidate> best() {
+        List<Candidate> result = new ArrayList<>(_heap);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Number of candidates I keep. */
+    private final int _capacity;
+    /** The candidates kept, worst at the head. */
+    private final PriorityQueue<Candidate> _heap;
+    /** Score a candidate must reach to be kept. */
+    private volatile double _threshold;
+}
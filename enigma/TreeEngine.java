@@ -0,0 +1,157 @@
+package enigma;
+
+import java.util.List;
+
+/** An Engine for machines with long rotor stacks.  It keeps a balanced
+ *  tree of composed permutations over the slots between the stationary
+ *  segment and the fast rotor: each leaf is one rotor at its current
+ *  setting, and each interior node is the composition of its children.
+ *  When some of those rotors step, only the nodes above them (O(log k) per
+ *  rotor, for k slots) are recomputed, and the whole path is read from the
+ *  root.  The fast rotor, which moves on every keypress, is kept out of
+ *  the tree, so a character costs the same few lookups as in
+ *  IncrementalEngine.
+ *  @author Kevin Li
+ */
+class TreeEngine extends Engine {
+
+    @Override
+    void load(Machine machine) {
+        _machine = machine;
+        _rotors = machine.getRotorsUsed();
+        _plugboard = machine.plugboard();
+        _last = _rotors.size() - 1;
+        _first = machine.stationary();
+        if (_first > _last) {
+            _fast = null;
+            _inner = machine.turnaround();
+            return;
+        }
+        _fast = _rotors.get(_last);
+        int size = machine.turnaround().length;
+        int count = _last - _first;
+        _width = 1;
+        while (_width < count) {
+            _width *= 2;
+        }
+        _forward = new int[2 * _width][];
+        _backward = new int[2 * _width][];
+        _posns = new int[count];
+        int[] identity = new int[size];
+        for (int c = 0; c < size; c += 1) {
+            identity[c] = c;
+        }
+        for (int i = 0; i < _width; i += 1) {
+            if (i < count) {
+                if (!_rotors.get(_first + i).table().tabulated()) {
+                    _forward[_width + i] = new int[size];
+                    _backward[_width + i] = new int[size];
+                }
+                setLeaf(i);
+            } else {
+                _forward[_width + i] = _backward[_width + i] = identity;
+            }
+        }
+        for (int node = _width - 1; node >= 1; node -= 1) {
+            _forward[node] = new int[size];
+            _backward[node] = new int[size];
+            combine(node);
+        }
+        _inner = new int[size];
+        composeInner();
+    }
+
+    @Override
+    int convert(int c) {
+        int moved = _machine.advanceRotors();
+        if (moved < _last && _fast != null) {
+            update(moved);
+        }
+        c = _plugboard.permute(c);
+        if (_fast == null) {
+            c = _inner[c];
+        } else {
+            c = _fast.convertBackward(_inner[_fast.convertForward(c)]);
+        }
+        return _plugboard.invert(c);
+    }
+
+    /** Refresh the leaves of all rotors in slots MOVED .. _last - 1 whose
+     *  settings have changed, and the nodes above them. */
+    private void update(int moved) {
+        boolean changed = false;
+        for (int j = Math.max(moved, _first); j < _last; j += 1) {
+            int i = j - _first;
+            if (_rotors.get(j).setting() != _posns[i]) {
+                setLeaf(i);
+                for (int node = (_width + i) / 2; node >= 1; node /= 2) {
+                    combine(node);
+                }
+                changed = true;
+            }
+        }
+        if (changed) {
+            composeInner();
+        }
+    }
+
+    /** Point leaf I at the tables of the rotor in slot _first + I at its
+     *  current setting, or, if they are not tabulated, fill the leaf's
+     *  own rows with them. */
+    private void setLeaf(int i) {
+        RotorTable table = _rotors.get(_first + i).table();
+        _posns[i] = _rotors.get(_first + i).setting();
+        if (table.tabulated()) {
+            _forward[_width + i] = table.forward(_posns[i]);
+            _backward[_width + i] = table.backward(_posns[i]);
+        } else {
+            table.forward(_posns[i], _forward[_width + i]);
+            table.backward(_posns[i], _backward[_width + i]);
+        }
+    }
+
+    /** Recompute interior NODE from its children.  The right child covers
+     *  the higher-numbered slots, which a signal reaches first. */
+    private void combine(int node) {
+        int[] fwd = _forward[node], bwd = _backward[node];
+        int[] leftF = _forward[2 * node], rightF = _forward[2 * node + 1];
+        int[] leftB = _backward[2 * node], rightB = _backward[2 * node + 1];
+        for (int c = 0; c < fwd.length; c += 1) {
+            fwd[c] = leftF[rightF[c]];
+            bwd[c] = rightB[leftB[c]];
+        }
+    }
+
+    /** Set _inner to the round trip through the root and the stationary
+     *  segment. */
+    private void composeInner() {
+        int[] turnaround = _machine.turnaround();
+        for (int c = 0; c < _inner.length; c += 1) {
+            _inner[c] = _backward[1][turnaround[_forward[1][c]]];
+        }
+    }
+
+    /** The machine I serve. */
+    private Machine _machine;
+    /** Its rotors, reflector first. */
+    private List<Rotor> _rotors;
+    /** Its plugboard. */
+    private Permutation _plugboard;
+    /** Slot number of the fast rotor. */
+    private int _last;
+    /** Slot number of the leftmost rotor that can move. */
+    private int _first;
+    /** The fast rotor, or null if no rotor in the machine moves. */
+    private Rotor _fast;
+    /** Number of leaves in the tree (a power of 2). */
+    private int _width;
+    /** Forward conversions of each tree node; node 1 is the root, node N
+     *  has children 2N and 2N + 1, and leaves start at _width. */
+    private int[][] _forward;
+    /** Backward conversions of each tree node. */
+    private int[][] _backward;
+    /** Setting of the rotor at each leaf when it was last refreshed. */
+    private int[] _posns;
+    /** Round-trip conversions through everything left of _fast. */
+    private int[] _inner;
+}
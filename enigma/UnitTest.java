@@ -3,9 +3,29 @@ package enigma;
 import org.junit.Test;
 import ucb.junit.textui;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /** The suite of all JUnit tests for the enigma package.
@@ -13,7 +33,10 @@ import static org.junit.Assert.assertEquals;
  */
 public class UnitTest {
     public Machine createMachine() {
-        Alphabet alphabet = new CharacterRange('A', 'Z');
+        return createMachine(new CharacterRange('A', 'Z'));
+    }
+
+    public Machine createMachine(Alphabet alphabet) {
         List<Rotor> rotors = new ArrayList<>();
         rotors.add(new MovingRotor("I",
                 new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
@@ -467,6 +490,883 @@ public class UnitTest {
         assertEquals("B", m.convert("A"));
     }
 
+    /** Return a message of LENGTH pseudo-random characters from
+     *  ALPHABET. */
+    private String randomMessage(Alphabet alphabet, int length) {
+        StringBuilder msg = new StringBuilder();
+        long seed = 61;
+        for (int i = 0; i < length; i += 1) {
+            seed = (seed * 1103515245 + 12345) & 0x7fffffff;
+            msg.append(alphabet.toChar((int) (seed >> 8) % alphabet.size()));
+        }
+        return msg.toString();
+    }
+
+    /** Check that PLAIN and FAST, two copies of the same machine, produce
+     *  the same conversions and settings when FAST uses ENGINE, with
+     *  rotors ROTORS starting at SETTING, and with the plugboard set
+     *  again partway through the message. */
+    private void checkEngine(Engine engine, Machine plain, Machine fast,
+                             String[] rotors, String setting) {
+        fast.setEngine(engine);
+        plain.insertRotors(rotors);
+        fast.insertRotors(rotors);
+        plain.setRotors(setting);
+        fast.setRotors(setting);
+        String msg = randomMessage(
+                plain.getRotorsUsed().get(0).alphabet(), 5000);
+        for (int i = 0; i < msg.length(); i += 500) {
+            String part = msg.substring(i, i + 500);
+            assertEquals(plain.convert(part), fast.convert(part));
+            if (i == 2000) {
+                plain.setPlugboard(plain.plugboard());
+                fast.setPlugboard(fast.plugboard());
+            }
+            assertEquals(plain.getSetting(), fast.getSetting());
+        }
+    }
+
+    /** Return MACHINE as loaded back from a snapshot, so that its rotors
+     *  read their tables from a mapping (RotorTable.Strategy.MAPPED). */
+    private static Machine mapped(Machine machine) {
+        try {
+            Path file = Files.createTempFile("machine", ".snap");
+            file.toFile().deleteOnExit();
+            Snapshot.write(machine, file);
+            return Snapshot.load(file);
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    /** Return a copy of MACHINE whose rotors hold their conversions
+     *  according to STRATEGY, keeping few positions if it is LAZY. */
+    private static Machine withTables(Machine machine,
+                                      RotorTable.Strategy strategy) {
+        List<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : machine.allRotors()) {
+            Permutation perm = rotor.permutation();
+            RotorTable table = new RotorTable(perm, strategy, 4);
+            if (rotor.reflecting()) {
+                rotors.add(new Reflector(rotor.name(), perm, table));
+            } else if (rotor.rotates()) {
+                rotors.add(new MovingRotor(rotor.name(), perm,
+                                           ((MovingRotor) rotor).notches(),
+                                           table));
+            } else {
+                rotors.add(new FixedRotor(rotor.name(), perm, table));
+            }
+        }
+        return new Machine(machine.alphabet(), machine.numRotors(),
+                           machine.numPawls(), rotors);
+    }
+
+    /** Check ENGINE against the default conversion on several machines. */
+    private void checkEngine(Engine engine) {
+        checkEngine(engine, createBigMachine(), createBigMachine(),
+                new String[] {"V", "IV", "III", "II", "I", "VI", "VII", "VIII"},
+                "AACCCCA");
+        checkEngine(engine, createHardDefaultHardMachine(),
+                createHardDefaultHardMachine(),
+                new String[] {"B", "V", "VI", "VII", "VIII"}, "ZYLM");
+        checkEngine(engine, createMachine(), createMachine(),
+                new String[] {"V", "IV", "III", "II", "I"}, "XBDC");
+        checkEngine(engine, createMachine(), mapped(createMachine()),
+                new String[] {"V", "IV", "III", "II", "I"}, "XBDC");
+        checkEngine(engine, createBigMachine(), mapped(createBigMachine()),
+                new String[] {"V", "IV", "III", "II", "I", "VI", "VII", "VIII"},
+                "AACCCCA");
+        for (RotorTable.Strategy strategy : new RotorTable.Strategy[] {
+                RotorTable.Strategy.ARITHMETIC, RotorTable.Strategy.LAZY }) {
+            checkEngine(engine, createBigMachine(),
+                    withTables(createBigMachine(), strategy),
+                    new String[] {"V", "IV", "III", "II", "I", "VI", "VII",
+                                  "VIII"}, "AACCCCA");
+            checkEngine(engine, createLabMachine(),
+                    withTables(createLabMachine(), strategy),
+                    new String[] {"R1", "R2", "R3", "R4"}, "ABC");
+        }
+        checkEngine(engine, createAMachine(), createAMachine(),
+                new String[] {"V", "I", "II", "III", "IV"}, "AAAA");
+        checkEngine(engine, createLabMachine(), createLabMachine(),
+                new String[] {"R1", "R2", "R3", "R4"}, "ABC");
+    }
+
+    @Test
+    public void testIncrementalEngine() {
+        checkEngine(new IncrementalEngine());
+    }
+
+    @Test
+    public void testTreeEngine() {
+        checkEngine(new TreeEngine());
+    }
+
+    @Test
+    public void testFlatEngine() {
+        checkEngine(new FlatEngine());
+    }
+
+    @Test
+    public void testBulkConvert() {
+        Machine plain = createHardDefaultHardMachine();
+        Machine bulk = createHardDefaultHardMachine();
+        String[] rotors = {"B", "V", "VI", "VII", "VIII"};
+        plain.insertRotors(rotors);
+        bulk.insertRotors(rotors);
+        plain.setRotors("ZYLM");
+        bulk.setRotors("ZYLM");
+        String msg = randomMessage(plain.getRotorsUsed().get(0).alphabet(),
+                                   1000);
+        String expected = plain.convert(msg);
+
+        char[] chars = ("xx" + msg.toLowerCase()).toCharArray();
+        bulk.convert(chars, 2, chars, 0, 600);
+        CharBuffer out = CharBuffer.allocate(400);
+        bulk.convert(CharBuffer.wrap(chars, 602, 400), out);
+        assertEquals(expected.substring(0, 600),
+                     new String(chars, 0, 600));
+        assertEquals(expected.substring(600), new String(out.array()));
+
+        bulk.setRotors("ZYLM");
+        int[] codes = new int[msg.length()];
+        for (int i = 0; i < codes.length; i += 1) {
+            codes[i] = msg.charAt(i) - 'A';
+        }
+        bulk.convert(codes, 0, codes, 0, codes.length);
+        for (int i = 0; i < codes.length; i += 1) {
+            assertEquals(expected.charAt(i), (char) ('A' + codes[i]));
+        }
+    }
+
+    @Test
+    public void testStreamingConvert() {
+        Machine plain = createBigMachine();
+        Machine streaming = createBigMachine();
+        String[] rotors = {"V", "IV", "III", "II", "I", "VI", "VII", "VIII"};
+        plain.insertRotors(rotors);
+        streaming.insertRotors(rotors);
+        plain.setRotors("AACCCCA");
+        streaming.setRotors("AACCCCA");
+        String msg = randomMessage(plain.getRotorsUsed().get(0).alphabet(),
+                                   21000);
+        String expected = plain.convert(msg);
+        StringBuilder text = new StringBuilder();
+        StringBuilder wanted = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 7) {
+            text.append(msg, i, i + 7).append(i % 3 == 0 ? "\n" : " ");
+            wanted.append(expected, i, i + 7).append(i % 3 == 0 ? "\n" : " ");
+        }
+        StringWriter out = new StringWriter();
+        streaming.convert(new StringReader(text.substring(0, 9000)), out);
+        streaming.convert(text.substring(9000), out);
+        assertEquals(wanted.toString(), out.toString());
+    }
+
+    @Test
+    public void testSeek() {
+        Machine m = createBigMachine();
+        m.insertRotors(
+                new String[]{"V", "IV", "III", "II", "I", "VI", "VII", "VIII"});
+        m.setRotors("AACCCCA");
+        List<String> settings = new ArrayList<>();
+        settings.add(m.getSetting());
+        for (int i = 0; i < 3000; i += 1) {
+            m.convert(0);
+            settings.add(m.getSetting());
+        }
+        for (int i = 0; i <= 3000; i += 37) {
+            m.seek(i);
+            assertEquals(settings.get(i), m.getSetting());
+        }
+
+        Machine plain = createHardDefaultHardMachine();
+        Machine seeking = createHardDefaultHardMachine();
+        String[] rotors = {"B", "V", "VI", "VII", "VIII"};
+        plain.insertRotors(rotors);
+        seeking.insertRotors(rotors);
+        plain.setRotors("ZYLM");
+        seeking.setRotors("ZYLM");
+        seeking.setEngine(new FlatEngine());
+        String msg = randomMessage(plain.getRotorsUsed().get(0).alphabet(),
+                                   20000);
+        String expected = plain.convert(msg);
+        seeking.seek(12345);
+        assertEquals(expected.substring(12345),
+                     seeking.convert(msg.substring(12345)));
+
+        seeking.seek(Long.MAX_VALUE);
+        Machine stepped = createHardDefaultHardMachine();
+        stepped.insertRotors(rotors);
+        stepped.setRotors("ZYLM");
+        int[] posns = new int[rotors.length];
+        for (int j = 0; j < posns.length; j += 1) {
+            posns[j] = stepped.getRotorsUsed().get(j).setting();
+        }
+        Map<String, Long> seen = new HashMap<>();
+        long count = 0;
+        Long before;
+        while ((before = seen.put(Arrays.toString(posns), count)) == null) {
+            stepped.stepper().step(posns);
+            count += 1;
+        }
+        long steps = before + (Long.MAX_VALUE - before) % (count - before);
+        for (long i = 0; i < steps; i += 1) {
+            stepped.convert(0);
+        }
+        assertEquals(stepped.getSetting(), seeking.getSetting());
+    }
+
+    @Test
+    public void testGroupWriterSurrogates() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter out = new GroupWriter(Channels.newChannel(bytes), 5);
+        out.write("AB\uD83DCD".toCharArray(), 0, 5);
+        out.write(new char[] {'\uD83D'}, 0, 1);
+        out.write(new char[] {'\uDE00', '\uDE00', 'E', '\uD83D'}, 0, 4);
+        out.endLine();
+        out.flush();
+        assertEquals("AB\uFFFDCD \uD83D\uDE00\uFFFDE\uFFFD \n",
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLineReaderMalformed() {
+        byte[] bytes = {
+            'A', (byte) 0xF8, (byte) 0x88, (byte) 0x80, (byte) 0x80,
+            (byte) 0xFF, (byte) 0xC0, (byte) 0xAF,
+            (byte) 0xE0, (byte) 0x80, (byte) 0xAF,
+            (byte) 0xED, (byte) 0xA0, (byte) 0x80,
+            (byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80,
+            (byte) 0xE2, (byte) 0x82, 'B',
+            (byte) 0xC3, (byte) 0xA9,
+            (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, '\n',
+        };
+        LineReader in = new LineReader(new ByteArrayInputStream(bytes));
+        assertEquals("A\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD"
+                     + "\uFFFD\uFFFD\uFFFDB\u00E9\uD83D\uDE00",
+                     in.readLine());
+        assertEquals(false, in.hasNextLine());
+    }
+
+    @Test
+    public void testGroupWriterDropLine() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GroupWriter out = new GroupWriter(Channels.newChannel(bytes), 5);
+        char[] line = new char[100000];
+        Arrays.fill(line, 'A');
+        out.write(line, 0, 7);
+        out.endLine();
+        out.write(line, 0, line.length);
+        assertEquals("AAAAA AA \n",
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        out.dropLine();
+        out.write(line, 0, 3);
+        out.endLine();
+        out.flush();
+        assertEquals("AAAAA AA \nAAA \n",
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testSeekAfterInsert() {
+        Machine m = createMachine();
+        m.insertRotors(new String[] {"V", "IV", "III", "II", "I"});
+        m.setRotors("XBDC");
+        m.insertRotors(new String[] {"V", "IV", "III", "IVV", "I"});
+        m.seek(0);
+    }
+
+    @Test
+    public void testSeekWideAlphabet() {
+        int n = 65536 + 10;
+        int[] codePoints = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            codePoints[i] = 0x20000 + i;
+        }
+        String symbols = new String(codePoints, 0, n);
+        Permutation identity =
+            new Permutation("", new CodePointTable(symbols));
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", identity));
+        rotors.add(new MovingRotor("L", identity,
+                new String(codePoints, 0, 1)));
+        rotors.add(new MovingRotor("M", identity,
+                new String(new int[] {codePoints[5], codePoints[65541]},
+                           0, 2)));
+        rotors.add(new MovingRotor("F", identity, symbols));
+        Stepper stepper = new Stepper(rotors, 3);
+        int[] stepped = new int[4];
+        for (int i = 0; i < 200000; i += 1) {
+            stepper.step(stepped);
+        }
+        int[] advanced = new int[4];
+        stepper.advance(advanced, 200000);
+        assertArrayEquals(stepped, advanced);
+    }
+
+    @Test
+    public void testParallelConvert() {
+        Machine plain = createBigMachine();
+        Machine parallel = createBigMachine();
+        String[] rotors = {"V", "IV", "III", "II", "I", "VI", "VII", "VIII"};
+        plain.insertRotors(rotors);
+        parallel.insertRotors(rotors);
+        plain.setRotors("AACCCCA");
+        parallel.setRotors("AACCCCA");
+        parallel.setEngine(new TreeEngine());
+        String msg = randomMessage(plain.getRotorsUsed().get(0).alphabet(),
+                                   3 * ParallelConversion.PIECE_SIZE + 17);
+        String expected = plain.convert(msg) + plain.convert("HELLO");
+        char[] chars = msg.toCharArray();
+        parallel.convertParallel(chars, 0, chars, 0, chars.length,
+                                 ForkJoinPool.commonPool());
+        assertEquals(expected, new String(chars) + parallel.convert("HELLO"));
+        assertEquals(plain.getSetting(), parallel.getSetting());
+    }
+
+    /** Return the output of Main with configuration CONF and input
+     *  INPUT, converting enigma.messageThreads messages at once if
+     *  THREADS is not null. */
+    private static byte[] runMain(Path conf, Path input, String threads)
+        throws IOException {
+        Path output = Files.createTempFile("out", ".txt");
+        try {
+            if (threads != null) {
+                System.setProperty("enigma.messageThreads", threads);
+            }
+            Main.main(conf.toString(), input.toString(), output.toString());
+            return Files.readAllBytes(output);
+        } finally {
+            System.clearProperty("enigma.messageThreads");
+            Files.delete(output);
+        }
+    }
+
+    @Test
+    public void testConcurrentMessages() throws IOException {
+        Path dir = Paths.get("..", "testing", "correct");
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(dir, "*.inp")) {
+            files.forEach(inputs::add);
+        }
+        assertEquals(true, inputs.size() > 0);
+        Path inherit = Files.createTempFile("inherit", ".inp");
+        Files.writeString(inherit,
+                          "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+                          + "FROM HIS SHOULDER HIAWATHA\n"
+                          + "* B BETA III IV I AXLE\n"
+                          + "FROM HIS SHOULDER HIAWATHA\n");
+        inputs.add(inherit);
+        try {
+            for (Path input : inputs) {
+                String name = input.getFileName().toString();
+                Path conf = dir.resolve(name.replace(".inp", ".conf"));
+                if (!Files.exists(conf)) {
+                    conf = dir.resolve("default.conf");
+                }
+                byte[] sequential = runMain(conf, input, null);
+                for (String threads : new String[] {"2", "4"}) {
+                    assertEquals(name, new String(sequential,
+                                                  StandardCharsets.UTF_8),
+                                 new String(runMain(conf, input, threads),
+                                            StandardCharsets.UTF_8));
+                }
+            }
+            String[] lines = new String(runMain(dir.resolve("default.conf"),
+                                                inherit, "2"),
+                                        StandardCharsets.UTF_8).split("\n");
+            assertEquals(2, lines.length);
+            assertEquals(lines[0], lines[1]);
+        } finally {
+            Files.delete(inherit);
+        }
+    }
+
+    @Test
+    public void testMachineCopy() {
+        Machine original = createMachine();
+        Machine copy = original.copy();
+        String[] rotors = {"V", "IV", "III", "II", "I"};
+        original.insertRotors(rotors);
+        copy.insertRotors(rotors);
+        original.setRotors("AXLE");
+        copy.setRotors("AXLE");
+        String msg = "HELLOWORLDTHISISATESTOFTHECOPIEDMACHINE";
+        String expected = original.convert(msg);
+        original.setRotors("BBBB");
+        assertEquals(expected, copy.convert(msg));
+        for (int i = 0; i < 5; i += 1) {
+            assertEquals(false, original.getRotorsUsed().get(i)
+                    == copy.getRotorsUsed().get(i));
+        }
+    }
+
+    @Test
+    public void testCharacterTable() {
+        Alphabet mixed = new CharacterTable("q7Z0ab");
+        assertEquals(6, mixed.size());
+        assertEquals('Q', mixed.toChar(0));
+        assertEquals(2, mixed.toInt('Z'));
+        assertEquals(3, mixed.indexOf('0'));
+        assertEquals(-1, mixed.indexOf('C'));
+        assertEquals(false, mixed.contains('z'));
+
+        String[] rotors = {"V", "IV", "III", "II", "I"};
+        Machine range = createMachine();
+        range.insertRotors(rotors);
+        range.setRotors("AXLE");
+        Machine tabled = createMachine(
+                new CharacterTable("ABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+        String msg = "HELLOWORLDTHISISATESTOFTHETABLEALPHABET";
+        String expected = range.convert(msg);
+        tabled.insertRotors(rotors);
+        tabled.setRotors("AXLE");
+        assertEquals(expected, tabled.convert(msg));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testCharacterTableDuplicate() {
+        new CharacterTable("ABCA");
+    }
+
+    @Test
+    public void testCodePointTable() {
+        String symbols = "a\uD83D\uDE00b\uD840\uDC00";
+        Alphabet alpha = new CodePointTable(symbols);
+        assertEquals(4, alpha.size());
+        assertEquals(0x1F600, alpha.toCodePoint(1));
+        assertEquals(3, alpha.indexOfCodePoint(0x20000));
+        assertEquals(2, alpha.toInt('B'));
+        assertEquals(-1, alpha.indexOfCodePoint(0x1F601));
+
+        List<Rotor> rotors = new ArrayList<>();
+        rotors.add(new MovingRotor("I", new Permutation(
+                "(A\uD83D\uDE00B)", alpha), "B"));
+        rotors.add(new Reflector("R", new Permutation(
+                "(A\uD840\uDC00) (\uD83D\uDE00B)", alpha)));
+        Machine m = new Machine(alpha, 2, 1, rotors);
+        m.insertRotors(new String[] {"R", "I"});
+        m.setRotors("\uD83D\uDE00");
+        int[] msg = "ab\uD83D\uDE00\uD840\uDC00ba".codePoints().toArray();
+        int[] coded = msg.clone();
+        m.convertCodePoints(coded, 0, coded, 0, coded.length);
+        assertEquals("A\uD840\uDC00", m.getSetting());
+        m.setRotors("\uD83D\uDE00");
+        m.convertCodePoints(coded, 0, coded, 0, coded.length);
+        for (int i = 0; i < msg.length; i += 1) {
+            assertEquals(Character.toUpperCase(msg[i]), coded[i]);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Path file = Files.createTempFile("machine", ".snap");
+        try {
+            Snapshot.write(createMachine(), file);
+            assertEquals(true, Snapshot.isSnapshot(file));
+            Machine loaded = Snapshot.load(file);
+            Machine original = createMachine();
+            String[] rotors = {"V", "IV", "III", "II", "I"};
+            loaded.insertRotors(rotors);
+            original.insertRotors(rotors);
+            loaded.setRotors("AXLE");
+            original.setRotors("AXLE");
+            String msg = randomMessage(loaded.alphabet(), 5000);
+            assertEquals(original.convert(msg), loaded.convert(msg));
+            for (Rotor rotor : loaded.copy().allRotors()) {
+                assertEquals(RotorTable.Strategy.MAPPED,
+                             rotor.table().strategy());
+            }
+            for (Rotor rotor : createMachine().allRotors()) {
+                assertEquals(RotorTable.Strategy.EAGER,
+                             rotor.table().strategy());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotLimit() throws IOException {
+        Path file = Files.createTempFile("machine", ".snap");
+        try {
+            Snapshot.write(createMachine(), file, 0);
+            Machine loaded = Snapshot.load(file);
+            Machine original = createMachine();
+            String[] rotors = {"V", "IV", "III", "II", "I"};
+            loaded.insertRotors(rotors);
+            original.insertRotors(rotors);
+            loaded.setRotors("AXLE");
+            original.setRotors("AXLE");
+            String msg = randomMessage(loaded.alphabet(), 5000);
+            assertEquals(original.convert(msg), loaded.convert(msg));
+            for (Rotor rotor : loaded.allRotors()) {
+                assertEquals(RotorTable.Strategy.EAGER,
+                             rotor.table().strategy());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testConfigParser() {
+        Machine m = new ConfigParser("test.conf",
+                "A-Z\n 3 1\n I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG)\n"
+                + "\n Beta N (ALBEVFCYODJWUGNMQTZSKPR)\n B R (AE) (BN)\n"
+                + "   (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\r\n"
+                + "   (RX) (SZ) (TV)\n").parse();
+        assertEquals(26, m.alphabet().size());
+        assertEquals(3, m.allRotors().size());
+        for (Rotor rotor : m.allRotors()) {
+            if (rotor.name().equals("B")) {
+                assertEquals(true, rotor.reflecting());
+                assertEquals('K', rotor.permutation().permute('C'));
+                assertEquals('T', rotor.permutation().permute('V'));
+                assertEquals(true, rotor.permutation().derangement());
+            }
+        }
+    }
+
+    @Test
+    public void testConfigParserErrors() {
+        String[][] cases = {
+            {"A-Z\n 3 x\n", "test.conf:2:4: "},
+            {"A-Z\n 3 1\n I MQ (AB) (CD\n", "test.conf:3:15: "},
+            {"A-Z\n 3 1\n I M1 (AB)\n", "test.conf:3:5: "},
+            {"A-Z\n 3 1\n I N (AB)\n I N (CD)\n", "test.conf:4:2: "},
+        };
+        for (String[] c : cases) {
+            try {
+                new ConfigParser("test.conf", c[0]).parse();
+                assertEquals("error", "no error");
+            } catch (EnigmaException excp) {
+                assertEquals(c[1], excp.getMessage().substring(0,
+                                                             c[1].length()));
+            }
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        Metrics.Histogram hist = new Metrics.Histogram();
+        for (int i = 0; i < 90; i += 1) {
+            hist.record(100);
+        }
+        for (int i = 0; i < 10; i += 1) {
+            hist.record(5000);
+        }
+        LatencySummary summary = hist.summary();
+        assertEquals(100, summary.getCount());
+        assertEquals(59000, summary.getTotalNanos());
+        assertEquals(5000, summary.getMaxNanos());
+        assertEquals(127, summary.getP50Nanos());
+        assertEquals(127, summary.getP90Nanos());
+        assertEquals(8191, summary.getP99Nanos());
+        hist.reset();
+        assertEquals(0, hist.summary().getCount());
+        assertEquals(0, hist.summary().getP99Nanos());
+    }
+
+    /** Return the alphabet indices of the letters of TEXT. */
+    private static int[] indices(String text) {
+        return text.chars().map(c -> c - 'A').toArray();
+    }
+
+    /** Counts of some common English bigrams. */
+    private static final String BIGRAMS =
+        "TH 27\nHE 23\nIN 20\nER 18\nAN 16\nRE 14\nON 13\nAT 12\n"
+        + "EN 11\nND 11\nTI 10\nES 10\nOR 10\nTE 9\nOF 9\nED 9\n"
+        + "IS 8\nIT 8\nAL 8\nAR 8\nST 8\nTO 8\nNT 8\nNG 7\n"
+        + "SE 7\nHA 7\nAS 6\nOU 6\nIO 6\nLE 6\nVE 6\nCO 6\n"
+        + "ME 6\nDE 6\nHI 6\nRI 5\nRO 5\nIC 5\nNE 5\nEA 5\n";
+
+    @Test
+    public void testScorers() {
+        String text = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        int[] symbols = indices(text);
+        Scorer[] scorers = {
+            new CoincidenceScorer(26),
+            new NGramScorer(new CharacterRange('A', 'Z'), "bigrams", BIGRAMS)
+        };
+        for (Scorer scorer : scorers) {
+            Scorer.Tally tally = scorer.tally(symbols.length);
+            tally.clear();
+            double bound = tally.bound();
+            for (int i = 0; i < symbols.length; i += 5) {
+                int len = Math.min(5, symbols.length - i);
+                tally.add(symbols, i, len);
+                assertEquals(true, tally.bound() <= bound + 1e-9);
+                bound = tally.bound();
+            }
+            double score = tally.score();
+            assertEquals(score, tally.bound(), 1e-9);
+            Scorer.Tally other = scorer.tally(symbols.length);
+            other.clear();
+            other.add(symbols, 0, 7);
+            assertEquals(true, other.bound() >= score);
+            other.add(symbols, 7, symbols.length - 7);
+            assertEquals(score, other.score(), 1e-9);
+        }
+        Scorer.Tally repeats = new CoincidenceScorer(26).tally(4);
+        repeats.clear();
+        repeats.add(indices("AAAB"), 0, 4);
+        assertEquals(26.0 * 6 / 12, repeats.score(), 1e-9);
+        Scorer.Tally pairs = scorers[1].tally(3);
+        pairs.clear();
+        pairs.add(indices("THE"), 0, 3);
+        double total = 0;
+        for (String line : BIGRAMS.split("\n")) {
+            total += Integer.parseInt(line.substring(3));
+        }
+        assertEquals(Math.log10(27 / total) + Math.log10(23 / total),
+                     pairs.score(), 1e-9);
+    }
+
+    @Test
+    public void testTopCandidates() {
+        TopCandidates top = new TopCandidates(2);
+        assertEquals(Double.NEGATIVE_INFINITY, top.threshold(), 0);
+        assertEquals(true, top.offer(new Candidate("* B I AA", "", 1)));
+        assertEquals(true, top.offer(new Candidate("* B I AB", "", 3)));
+        assertEquals(1, top.threshold(), 0);
+        assertEquals(true, top.offer(new Candidate("* B I AC", "", 2)));
+        assertEquals(false, top.offer(new Candidate("* B I AD", "", 0)));
+        assertEquals(2, top.threshold(), 0);
+        assertEquals("[3.0000 * B I AB, 2.0000 * B I AC]",
+                     top.best().toString());
+        assertEquals(true, top.offer(new Candidate("* B I AA", "", 2)));
+        assertEquals(false, top.offer(new Candidate("* B I AZ", "", 2)));
+        assertEquals("[3.0000 * B I AB, 2.0000 * B I AA]",
+                     top.best().toString());
+    }
+
+    /** Configuration of a machine with three slots and rotors I, II,
+     *  III, and B, small enough to search exhaustively. */
+    private static final String SEARCH_CONF =
+        "A-Z\n 3 2\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "   (RX) (SZ) (TV)\n";
+
+    /** Return the machine described by SEARCH_CONF. */
+    private static Machine createSearchMachine() {
+        return new ConfigParser("search.conf", SEARCH_CONF).parse();
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws IOException {
+        Path dir = Files.createTempDirectory("events");
+        Path conf = dir.resolve("search.conf");
+        Path input = dir.resolve("in.txt");
+        Path output = dir.resolve("out.txt");
+        Path dump = dir.resolve("events.jfr");
+        Files.writeString(conf, SEARCH_CONF);
+        Files.writeString(input, "* B III I KD (AT) (QZ)\nHELLO WORLD\nABC\n"
+                          + "* B I II AA\nXYZ\n");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConfigLoad", "Setting",
+                                             "Message", "Flush"}) {
+                recording.enable("enigma." + name);
+            }
+            recording.start();
+            Main.main(conf.toString(), input.toString(), output.toString());
+            recording.stop();
+            recording.dump(dump);
+        }
+        List<String> seen = new ArrayList<>();
+        long flushed = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+            switch (event.getEventType().getName()) {
+            case "enigma.ConfigLoad":
+                seen.add(String.format("load %s %b %d %d",
+                                       event.getString("source"),
+                                       event.getBoolean("snapshot"),
+                                       event.getInt("rotors"),
+                                       event.getInt("alphabetSize")));
+                break;
+            case "enigma.Setting":
+                seen.add(String.format("setting %s %b",
+                                       event.getString("setting"),
+                                       event.getBoolean("plugboard")));
+                break;
+            case "enigma.Message":
+                seen.add(String.format("message %d %d",
+                                       event.getLong("length"),
+                                       event.getInt("lines")));
+                break;
+            default:
+                flushed += event.getInt("bytes");
+                break;
+            }
+        }
+        Collections.sort(seen);
+        assertEquals("[load " + conf + " false 4 26, message 13 2, "
+                     + "message 3 1, setting * B I II AA false, "
+                     + "setting * B III I KD (AT) (QZ) true]",
+                     seen.toString());
+        assertEquals(Files.size(output), flushed);
+        for (Path file : new Path[] {conf, input, output, dump, dir}) {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSearch() {
+        Machine machine = createSearchMachine();
+        List<String[]> orders = Search.orders(machine);
+        assertEquals(6, orders.size());
+        assertEquals("[B, I, II]", Arrays.toString(orders.get(0)));
+        String plain = "THEREISNOTHINGTHATSEESTHEENIGMATHROUGHASWELL"
+            + "ASTHEANALYSTWHOREADSTHEINTERCEPTSONTHATEVENING";
+        machine.setPlugboard(new Permutation("(AT) (QZ)",
+                                             machine.alphabet()));
+        machine.insertRotors(new String[] {"B", "III", "I"});
+        machine.setRotors("KD");
+        String cipher = machine.convert(plain);
+        Scorer scorer =
+            new NGramScorer(machine.alphabet(), "bigrams", BIGRAMS);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<Candidate> best =
+            new Search(machine, indices(cipher), scorer, 3).search(pool);
+        pool.shutdown();
+        assertEquals(3, best.size());
+        assertEquals("* B III I KD (AT) (QZ)", best.get(0).setting());
+        assertEquals(plain, best.get(0).plaintext());
+        assertEquals(true, best.get(0).score() > best.get(1).score());
+    }
+
+    @Test
+    public void testSearchTies() {
+        Machine machine = createSearchMachine();
+        int[] cipher = indices("THEQUICKBROWNFOX");
+        Scorer scorer = new CoincidenceScorer(26);
+        List<String[]> orders = Search.orders(machine);
+        List<Candidate> all = new ArrayList<>();
+        Scorer.Tally tally = scorer.tally(cipher.length);
+        int[] plain = new int[cipher.length];
+        for (String[] order : orders) {
+            machine.insertRotors(order);
+            for (int setting = 0; setting < 26 * 26; setting += 1) {
+                machine.setRotors(new int[] {setting / 26, setting % 26});
+                machine.convert(cipher, 0, plain, 0, plain.length);
+                tally.clear();
+                tally.add(plain, 0, plain.length);
+                all.add(new Candidate("* " + String.join(" ", order) + " "
+                                      + text(new int[] {setting / 26,
+                                                        setting % 26}),
+                                      "", tally.score()));
+            }
+        }
+        Collections.sort(all);
+        assertEquals(all.get(3).score(), all.get(4).score(), 0);
+        Collections.reverse(orders);
+        for (int trial = 0; trial < 5; trial += 1) {
+            ForkJoinPool pool = new ForkJoinPool(2);
+            List<Candidate> best =
+                new Search(machine, cipher, scorer, 4).search(orders, pool);
+            pool.shutdown();
+            assertEquals(4, best.size());
+            assertEquals(all.subList(0, 4).toString(), best.toString());
+        }
+    }
+
+    @Test
+    public void testPlugboardClimber() {
+        Machine machine = createMachine();
+        String plain = "THEREISNOTHINGTHATSEESTHEENIGMATHROUGHASWELL"
+            + "ASTHEANALYSTWHOREADSTHEINTERCEPTSONTHATEVENING";
+        Permutation plugboard = new Permutation("(AT) (QZ)",
+                                                machine.alphabet());
+        machine.setPlugboard(plugboard);
+        machine.insertRotors(new String[] {"V", "IV", "III", "IVV", "I"});
+        machine.setRotors("KDXA");
+        int[] cipher = indices(machine.convert(plain));
+        machine.setRotors("KDXA");
+        NGramScorer scorer =
+            new NGramScorer(machine.alphabet(), "bigrams", BIGRAMS);
+        PlugboardClimber climber =
+            new PlugboardClimber(machine, cipher, scorer);
+        assertEquals(plugboard, machine.plugboard());
+        assertEquals(plain, machine.convert(text(cipher)));
+
+        Permutation found =
+            climber.climb(new Permutation("", machine.alphabet()), 4);
+        Scorer.Tally tally = scorer.tally(cipher.length);
+        tally.clear();
+        tally.add(climber.plaintext(), 0, cipher.length);
+        assertEquals(tally.score(), climber.score(), 1e-6);
+        machine.setPlugboard(found);
+        machine.setRotors("KDXA");
+        assertEquals(text(climber.plaintext()),
+                     machine.convert(text(cipher)));
+        assertEquals(true, found.cycles().split(" ").length <= 4);
+
+        climber.climb(new Permutation("", machine.alphabet()), 0);
+        assertEquals(true, climber.score() <= tally.score());
+    }
+
+    @Test
+    public void testMenu() {
+        Alphabet alpha = new CharacterRange('A', 'Z');
+        Menu menu = new Menu(alpha, indices("ABCA"), indices("XBCADZ"), 1);
+        assertEquals(4, menu.length());
+        assertEquals(1, menu.offset());
+        assertEquals(alpha.toInt('A'), menu.center());
+        assertEquals("[1, 2, 3]",
+                     Arrays.toString(menu.neighbors(alpha.toInt('A'))));
+        assertEquals("[0, 2, 3]",
+                     Arrays.toString(menu.steps(alpha.toInt('A'))));
+        assertEquals(1, menu.loops());
+        assertEquals(0, new Menu(alpha, indices("AB"), indices("BC"), 0)
+                     .loops());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testMenuSelfOpposite() {
+        new Menu(new CharacterRange('A', 'Z'), indices("ABC"),
+                 indices("XBZ"), 0);
+    }
+
+    @Test
+    public void testBombe() {
+        Machine machine = createSearchMachine();
+        String plain = "THEREISNOTHINGTHATSEESTHEENIGMATHROUGHASWELL"
+            + "ASTHEANALYSTWHOREADSTHEINTERCEPTSONTHATEVENING";
+        machine.setPlugboard(new Permutation("(AT) (QZ) (EH) (NR)",
+                                             machine.alphabet()));
+        machine.insertRotors(new String[] {"B", "III", "I"});
+        machine.setRotors("KD");
+        String cipher = machine.convert(plain);
+        String crib = plain.substring(9, 39);
+        Menu menu = new Menu(machine.alphabet(), indices(crib),
+                             indices(cipher), 9);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<String> stops = new Bombe(machine, menu).run(pool, 10);
+        pool.shutdown();
+        assertEquals(true, menu.loops() >= 3);
+        assertEquals("[* B III I KD (AT) (EH) (NR) (QZ)]", stops.toString());
+        Menu shortMenu = new Menu(machine.alphabet(),
+                                  indices(crib.substring(0, 4)),
+                                  indices(cipher), 9);
+        pool = new ForkJoinPool(1);
+        assertEquals(3, new Bombe(machine, shortMenu).run(pool, 3).size());
+        pool.shutdown();
+    }
+
+    /** Return the letters whose alphabet indices are SYMBOLS. */
+    private static String text(int[] symbols) {
+        StringBuilder result = new StringBuilder();
+        for (int s : symbols) {
+            result.append((char) ('A' + s));
+        }
+        return result.toString();
+    }
+
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {